@@ -0,0 +1,388 @@
+// MIT License
+
+// Copyright (c) 2024 lila-lalab
+
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+package com.lalab.util.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Command-line entry point converting whole directory trees of XML and JSON files in parallel.
+ * <pre>
+ * java -jar x2j2x.jar [--config=file.properties] [--threads=n] [--direction=x2j|j2x] &lt;input dir or glob&gt; &lt;output dir&gt;
+ * </pre>
+ * Configuration properties prefixed with "x2j." and "j2x." are assigned to the fields of
+ * {@link X2JConverterConfig} and {@link J2XConverterConfig}; list values are comma separated.
+ * Compressed files such as "orders.xml.gz" are converted through a {@link ConversionPipeline} and written with the same compression.
+ */
+public class BulkConverter {
+    private static final String USAGE = "Usage: java -jar x2j2x.jar [--config=file.properties] [--threads=n] [--direction=x2j|j2x] <input dir or glob> <output dir>";
+
+    private final X2JConverter x2jConverter;
+    private final J2XConverter j2xConverter;
+    private final String direction;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final TransformerFactory transformerFactory = TransformerFactory.newInstance();
+    private ConversionPipeline pipeline;
+
+    private final AtomicLong convertedFiles = new AtomicLong();
+    private final AtomicLong failedFiles = new AtomicLong();
+    private final AtomicLong inputBytes = new AtomicLong();
+    private final AtomicLong outputBytes = new AtomicLong();
+    private long startTime;
+    private long endTime;
+
+    /**
+     * Constructs a BulkConverter with the specified configurations.
+     *
+     * @param x2jConfig the configuration for XML to JSON conversion
+     * @param j2xConfig the configuration for JSON to XML conversion
+     * @param direction "x2j" or "j2x" to convert only the XML or only the JSON files, or null to convert both by file extension
+     */
+    public BulkConverter(X2JConverterConfig x2jConfig, J2XConverterConfig j2xConfig, String direction) {
+        this.x2jConverter = new X2JConverter(x2jConfig);
+        this.j2xConverter = new J2XConverter(j2xConfig);
+        this.direction = direction;
+    }
+
+    /**
+     * Runs the command line and exits with its exit code.
+     *
+     * @param args the command-line arguments, see {@link #run(String[], PrintStream, PrintStream)}
+     */
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /**
+     * Runs the command line and returns its exit code.
+     *
+     * @param args the command-line arguments
+     * @param out the stream receiving the statistics
+     * @param err the stream receiving errors
+     * @return 0 if every file was converted, 1 if a file failed, 2 on invalid arguments
+     */
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        X2JConverterConfig x2jConfig = new X2JConverterConfig();
+        J2XConverterConfig j2xConfig = new J2XConverterConfig();
+        int threads = Runtime.getRuntime().availableProcessors();
+        String direction = null;
+        List<String> paths = new ArrayList<>();
+        try {
+            for (String arg : args) {
+                if (arg.startsWith("--config=")) {
+                    Properties properties = new Properties();
+                    try (InputStream in = Files.newInputStream(Paths.get(arg.substring(9)))) {
+                        properties.load(in);
+                    }
+                    applyProperties(x2jConfig, properties, "x2j.");
+                    applyProperties(j2xConfig, properties, "j2x.");
+                } else if (arg.startsWith("--threads=")) {
+                    threads = parseThreads(arg.substring(10));
+                } else if (arg.startsWith("--direction=")) {
+                    direction = arg.substring(12).toLowerCase(Locale.ROOT);
+                    if (!direction.equals("x2j") && !direction.equals("j2x")) throw new IllegalArgumentException("Unknown direction '" + direction + "'");
+                } else if (arg.startsWith("--")) {
+                    throw new IllegalArgumentException("Unknown option '" + arg + "'");
+                } else {
+                    paths.add(arg);
+                }
+            }
+            if (paths.size() != 2) throw new IllegalArgumentException(USAGE);
+        } catch (IOException | IllegalArgumentException e) {
+            err.println(e.getMessage());
+            return 2;
+        }
+
+        BulkConverter converter = new BulkConverter(x2jConfig, j2xConfig, direction);
+        try {
+            converter.convertAll(paths.get(0), Paths.get(paths.get(1)), threads, err);
+        } catch (IOException | IllegalArgumentException e) {
+            err.println(e.getMessage());
+            return 2;
+        }
+        converter.printStatistics(out);
+        return converter.failedFiles.get() == 0 ? 0 : 1;
+    }
+
+    /**
+     * Converts every matching file below the input directory, or matching the input glob, into the output directory.
+     * Only XML and JSON files are converted, or the input files of the forced direction.
+     * The glob is matched against the paths relative to its directory part, and "**&#47;" also matches no directory,
+     * so "data/**&#47;*.xml" includes the XML files directly in "data".
+     * The relative paths of the input files are kept and their extensions are switched. The output directory must not
+     * be the input directory, or the directory part of the glob, nor lie inside it, since the outputs could replace
+     * input files or be read back as inputs.
+     *
+     * @param input an input directory or a glob pattern such as "data/**&#47;*.xml"
+     * @param outputDir the output directory
+     * @param threads the number of worker threads
+     * @param err the stream receiving conversion errors
+     * @throws IOException if the input files cannot be listed
+     * @throws IllegalArgumentException if the number of threads is not positive or the output directory is inside the input directory
+     */
+    public void convertAll(String input, Path outputDir, int threads, PrintStream err) throws IOException {
+        if (threads < 1) throw new IllegalArgumentException("The number of threads must be positive, got " + threads);
+        startTime = System.nanoTime();
+        pipeline = new ConversionPipeline();
+        Path baseDir;
+        PathMatcher matcher;
+        if (Files.isDirectory(Paths.get(input))) {
+            baseDir = Paths.get(input);
+            matcher = path -> getDirection(path) != null;
+        } else {
+            int globStart = indexOfGlob(input);
+            int separator = input.lastIndexOf('/', globStart);
+            baseDir = Paths.get(separator < 0 ? "." : input.substring(0, Math.max(separator, 1)));
+            PathMatcher glob = globMatcher(input.substring(separator + 1));
+            matcher = path -> glob.matches(path) && getDirection(path) != null;
+        }
+
+        if (outputDir.toAbsolutePath().normalize().startsWith(baseDir.toAbsolutePath().normalize()))
+            throw new IllegalArgumentException("The output directory " + outputDir + " must not be inside the input directory " + baseDir);
+
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(baseDir)) {
+            files = walk.filter(Files::isRegularFile).filter(path -> matcher.matches(baseDir.relativize(path))).collect(Collectors.toList());
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<>(files.size());
+            for (Path file : files) {
+                results.add(workers.submit(() -> convertFile(file, outputDir.resolve(baseDir.relativize(file)), err)));
+            }
+            for (Future<?> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    failedFiles.incrementAndGet();
+                    err.println(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while converting files", e);
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+            pipeline.close();
+            endTime = System.nanoTime();
+        }
+    }
+
+    /**
+     * Converts a single file, writing the result next to the target path with the switched extension.
+     */
+    private void convertFile(Path source, Path target, PrintStream err) {
+        String fileDirection = getDirection(source);
+        String fileName = target.getFileName().toString();
+        ConversionPipeline.Compression compression = ConversionPipeline.Compression.forFileName(fileName);
+        String compressionExtension = compression == ConversionPipeline.Compression.NONE ? "" : fileName.substring(fileName.lastIndexOf('.'));
+        fileName = fileName.substring(0, fileName.length() - compressionExtension.length());
+        Path output = target.resolveSibling(replaceExtension(fileName, fileDirection.equals("x2j") ? ".json" : ".xml") + compressionExtension);
+        try {
+            Files.createDirectories(output.toAbsolutePath().getParent());
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(source));
+                 OutputStream out = new BufferedOutputStream(Files.newOutputStream(output))) {
+                if (compression != ConversionPipeline.Compression.NONE) {
+                    if (fileDirection.equals("x2j")) pipeline.x2J(x2jConverter, in, compression, out, compression, JsonFormat.JSON);
+                    else pipeline.j2x(j2xConverter, in, compression, out, compression);
+                } else if (fileDirection.equals("x2j")) {
+                    objectMapper.writeValue(out, x2jConverter.x2J(in));
+                } else {
+                    JsonNode json = objectMapper.readTree(in);
+                    Transformer transformer = transformerFactory.newTransformer();
+                    transformer.transform(new DOMSource(j2xConverter.j2x(json)), new StreamResult(out));
+                }
+            }
+            inputBytes.addAndGet(Files.size(source));
+            outputBytes.addAndGet(Files.size(output));
+            convertedFiles.incrementAndGet();
+        } catch (Exception e) {
+            failedFiles.incrementAndGet();
+            err.println(source + ": " + e);
+        }
+    }
+
+    /**
+     * Prints the file counts and the throughput of the last run.
+     *
+     * @param out the stream receiving the statistics
+     */
+    public void printStatistics(PrintStream out) {
+        double seconds = Math.max(endTime - startTime, 1) / 1e9;
+        double megabytes = inputBytes.get() / (1024.0 * 1024.0);
+        out.printf(Locale.ROOT, "Converted %d files (%d failed) in %.3f s%n", convertedFiles.get(), failedFiles.get(), seconds);
+        out.printf(Locale.ROOT, "Read %d bytes, wrote %d bytes%n", inputBytes.get(), outputBytes.get());
+        out.printf(Locale.ROOT, "Throughput: %.1f files/s, %.2f MB/s%n", convertedFiles.get() / seconds, megabytes / seconds);
+    }
+
+    /**
+     * Returns the conversion direction of a file from its extension, ignoring a compression extension.
+     * @param path the input file
+     * @return "x2j" or "j2x", or null if the file is not converted, including files of the other direction
+     *         when the direction is forced
+     */
+    private String getDirection(Path path) {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (ConversionPipeline.Compression.forFileName(name) != ConversionPipeline.Compression.NONE) name = name.substring(0, name.lastIndexOf('.'));
+        String fileDirection = null;
+        if (name.endsWith(".xml")) fileDirection = "x2j";
+        else if (name.endsWith(".json")) fileDirection = "j2x";
+        return direction == null || direction.equals(fileDirection) ? fileDirection : null;
+    }
+
+    /**
+     * Parses the value of the --threads option.
+     * @param value the option value
+     * @return the number of threads
+     * @throws IllegalArgumentException if the value is not a positive number
+     */
+    private static int parseThreads(String value) {
+        try {
+            int threads = Integer.parseInt(value);
+            if (threads > 0) return threads;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("--threads expects a positive number, got '" + value + "'\n" + USAGE);
+    }
+
+    /**
+     * Compiles a glob pattern in which a "**&#47;" directory prefix also matches files without that directory level.
+     * @param pattern the glob pattern relative to the base directory
+     * @return the path matcher
+     */
+    private static PathMatcher globMatcher(String pattern) {
+        if (pattern.indexOf('{') < 0) pattern = pattern.replace("**/", "{**/,}");
+        return FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+    }
+
+    private static String replaceExtension(String fileName, String extension) {
+        int dot = fileName.lastIndexOf('.');
+        return (dot > 0 ? fileName.substring(0, dot) : fileName) + extension;
+    }
+
+    private static int indexOfGlob(String input) {
+        for (int i = 0; i < input.length(); i++) {
+            if ("*?[{".indexOf(input.charAt(i)) >= 0) return i;
+        }
+        return input.length();
+    }
+
+    /**
+     * Assigns the prefixed properties to the public fields of a converter configuration.
+     * Lists are comma-separated and maps are comma-separated key=value pairs.
+     *
+     * @param config the converter configuration
+     * @param properties the properties to apply
+     * @param prefix the property name prefix of the configuration
+     * @throws IllegalArgumentException if a property names an unknown field or has an invalid value
+     */
+    static void applyProperties(Object config, Properties properties, String prefix) {
+        for (String name : properties.stringPropertyNames()) {
+            if (!name.startsWith(prefix)) continue;
+            String value = properties.getProperty(name).trim();
+            try {
+                Field field = config.getClass().getField(name.substring(prefix.length()));
+                if (Modifier.isStatic(field.getModifiers())) throw new NoSuchFieldException(name);
+                Class<?> type = field.getType();
+                if (type == boolean.class) field.setBoolean(config, parseBoolean(name, value));
+                else if (type == int.class) field.setInt(config, Integer.parseInt(value));
+                else if (type == long.class) field.setLong(config, Long.parseLong(value));
+                else if (type == String.class) field.set(config, value);
+                else if (type == List.class) field.set(config, value.isEmpty() ? new ArrayList<>() : Arrays.asList(value.split("\\s*,\\s*")));
+                else if (type == Map.class) field.set(config, parseMap(name, value));
+                else throw new IllegalArgumentException("Property '" + name + "' cannot be set from a properties file");
+            } catch (NoSuchFieldException e) {
+                throw new IllegalArgumentException("Unknown property '" + name + "'");
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Parses a boolean property, rejecting anything but "true" and "false" so that a typo is not read as false.
+     *
+     * @param name the property name
+     * @param value the property value
+     * @return the parsed value
+     * @throws IllegalArgumentException if the value is neither "true" nor "false"
+     */
+    private static boolean parseBoolean(String name, String value) {
+        if (value.equalsIgnoreCase("true")) return true;
+        if (value.equalsIgnoreCase("false")) return false;
+        throw new IllegalArgumentException("Property '" + name + "' expects true or false, got '" + value + "'");
+    }
+
+    /**
+     * Parses comma-separated key=value pairs.
+     *
+     * @param name the property name
+     * @param value the property value
+     * @return the parsed pairs in their original order
+     * @throws IllegalArgumentException if a pair has no '='
+     */
+    private static Map<String, String> parseMap(String name, String value) {
+        Map<String, String> map = new LinkedHashMap<>();
+        if (value.isEmpty()) return map;
+        for (String entry : value.split("\\s*,\\s*")) {
+            int separator = entry.indexOf('=');
+            if (separator < 0) throw new IllegalArgumentException("Property '" + name + "' expects key=value pairs");
+            map.put(entry.substring(0, separator).trim(), entry.substring(separator + 1).trim());
+        }
+        return map;
+    }
+}
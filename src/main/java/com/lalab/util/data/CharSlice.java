@@ -0,0 +1,128 @@
+// MIT License
+
+// Copyright (c) 2024 lila-lalab
+
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+package com.lalab.util.data;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * A read-only range of a string of the XML source, such as the trimmed text of a DOM node or of a stream parser event.
+ * The characters are only copied into a new String when {@link #toString()} is called.
+ */
+public final class CharSlice implements CharSequence {
+    private static final int MAX_BUFFERED_CHARS = 8192;
+    private static final ThreadLocal<char[]> WRITE_BUFFER = ThreadLocal.withInitial(() -> new char[MAX_BUFFERED_CHARS]);
+
+    private final String source;
+    private final int start;
+    private final int end;
+    private String value;
+
+    /**
+     * Constructs a slice of a string.
+     * @param source the source string
+     * @param start the index of the first character
+     * @param end the index after the last character
+     */
+    CharSlice(String source, int start, int end) {
+        this.source = source;
+        this.start = start;
+        this.end = end;
+        if (start == 0 && end == source.length()) this.value = source;
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= end - start) throw new IndexOutOfBoundsException("index " + index + ", length " + length());
+        return source.charAt(start + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+        if (from < 0 || to > end - start || from > to)
+            throw new IndexOutOfBoundsException("from " + from + ", to " + to + ", length " + length());
+        return new CharSlice(source, start + from, start + to);
+    }
+
+    /**
+     * Check whether the slice holds the same characters as another character sequence.
+     * @param other the sequence to compare with
+     * @return true if both sequences hold the same characters
+     */
+    public boolean contentEquals(CharSequence other) {
+        if (other.length() != end - start) return false;
+        for (int i = 0; i < end - start; i++) {
+            if (source.charAt(start + i) != other.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes the characters as a string value of any generator format. A partial slice is copied into a per-thread
+     * buffer, or into a temporary array if it is longer, and written from there without creating a string.
+     * @param generator the generator to write to
+     * @throws IOException if the output cannot be written
+     */
+    void writeTo(JsonGenerator generator) throws IOException {
+        if (value != null) {
+            generator.writeString(value);
+            return;
+        }
+        int length = end - start;
+        char[] buffer = length <= MAX_BUFFERED_CHARS ? WRITE_BUFFER.get() : new char[length];
+        source.getChars(start, end, buffer, 0);
+        generator.writeString(buffer, 0, length);
+    }
+
+    /**
+     * Returns the characters as a string, which is created on the first call and kept for later ones.
+     * @return the characters of the slice
+     */
+    @Override
+    public String toString() {
+        if (value == null) value = source.substring(start, end);
+        return value;
+    }
+
+    /**
+     * Returns the same hash code as the string holding the characters of the slice.
+     * @return the hash code
+     */
+    @Override
+    public int hashCode() {
+        if (value != null) return value.hashCode();
+        int hash = 0;
+        for (int i = start; i < end; i++) hash = 31 * hash + source.charAt(i);
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o == this || (o instanceof CharSlice && contentEquals((CharSlice) o));
+    }
+}
@@ -0,0 +1,373 @@
+// MIT License
+
+// Copyright (c) 2024 lila-lalab
+
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+package com.lalab.util.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * A size and weight bounded LRU cache of conversion results, keyed by the input bytes and the converter configuration.
+ * The weight of an entry is the size of its input plus an estimate of the heap size of its result.
+ * Cached results are never handed out directly; every call returns a copy that the caller may modify.
+ * The configuration fields a converter compiles when it is built are fingerprinted once, while the fields it reads
+ * live are compared with a snapshot on every lookup, so changing them keys later results separately.
+ * XML is converted through the stream reader, which gives the same JSON as x2J(Document).
+ */
+public class ConversionCache {
+    private final int maxEntries;
+    private final long maxWeight;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * Constructs a ConversionCache with the specified bounds.
+     *
+     * @param maxEntries the maximum number of cached results
+     * @param maxWeight the maximum total weight in bytes of the cached inputs and results
+     */
+    public ConversionCache(int maxEntries, long maxWeight) {
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Converts XML bytes to a JSON node, reusing the result of an earlier conversion of the same input.
+     *
+     * @param converter the converter used on a cache miss
+     * @param xml the XML bytes to convert
+     * @return a copy of the JSON node representing the XML data
+     * @throws XMLStreamException if the XML input is malformed
+     */
+    public JsonNode x2J(X2JConverter converter, byte[] xml) throws XMLStreamException {
+        Key key = new Key("x2j", converter.configFingerprint(), xml);
+        JsonNode cached = (JsonNode) get(key);
+        if (cached == null) {
+            cached = converter.x2J(new ByteArrayInputStream(xml));
+            put(key, cached, weigh(cached));
+        }
+        return cached.deepCopy();
+    }
+
+    /**
+     * Converts JSON bytes to an XML Document, reusing the result of an earlier conversion of the same input.
+     *
+     * @param converter the converter used on a cache miss
+     * @param json the JSON bytes to convert
+     * @return a copy of the XML Document representing the JSON data
+     * @throws IOException if the JSON input is malformed
+     * @throws ParserConfigurationException if a DocumentBuilder cannot be created
+     */
+    public Document j2x(J2XConverter converter, byte[] json) throws IOException, ParserConfigurationException {
+        Key key = new Key("j2x", converter.configFingerprint(), json);
+        Document cached = (Document) get(key);
+        if (cached == null) {
+            cached = converter.j2x(objectMapper.readTree(json));
+            put(key, cached, weigh(cached));
+        }
+        synchronized (cached) {
+            return (Document) cached.cloneNode(true);
+        }
+    }
+
+    /**
+     * Returns the number of lookups answered from the cache.
+     * @return the hit count
+     */
+    public long hitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * Returns the number of lookups that required a conversion.
+     * @return the miss count
+     */
+    public long missCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * Returns the number of results evicted to stay within the bounds.
+     * @return the eviction count
+     */
+    public long evictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * Returns the number of cached results.
+     * @return the entry count
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the total weight in bytes of the cached inputs and results.
+     * @return the current weight
+     */
+    public synchronized long weight() {
+        return weight;
+    }
+
+    /**
+     * Removes every cached result.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    private synchronized Object get(Key key) {
+        Entry entry = entries.get(key);
+        if (entry != null) hitCount.increment();
+        else missCount.increment();
+        return entry == null ? null : entry.result;
+    }
+
+    private synchronized void put(Key key, Object result, long resultWeight) {
+        long entryWeight = key.input.length + resultWeight;
+        if (entryWeight > maxWeight || maxEntries <= 0) return;
+        Entry previous = entries.put(key.copy(), new Entry(result, entryWeight));
+        weight += entryWeight - (previous == null ? 0 : previous.weight);
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > maxEntries || weight > maxWeight) {
+            weight -= eldest.next().weight;
+            eldest.remove();
+            evictionCount.increment();
+        }
+    }
+
+    private static final int NODE_OVERHEAD = 48;
+    private static final int FIELD_OVERHEAD = 40;
+
+    /**
+     * Estimates the heap size of a JSON tree from its node count and the length of its names and text.
+     * @param json the JSON node
+     * @return the estimated size in bytes
+     */
+    static long weigh(JsonNode json) {
+        long weight = NODE_OVERHEAD;
+        if (json.isObject()) {
+            for (Iterator<Map.Entry<String, JsonNode>> fields = json.fields(); fields.hasNext(); ) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                weight += FIELD_OVERHEAD + 2L * field.getKey().length() + weigh(field.getValue());
+            }
+        } else if (json.isArray()) {
+            for (JsonNode item : json) weight += 8 + weigh(item);
+        } else if (json instanceof TextSliceNode) {
+            weight += 2L * ((TextSliceNode) json).charSequence().length(); // without creating the string
+        } else if (json.isTextual() && json.textValue() != null) {
+            weight += 2L * json.textValue().length();
+        }
+        return weight;
+    }
+
+    /**
+     * Estimates the heap size of a DOM subtree from its node count and the length of its names and values.
+     * @param node the DOM node
+     * @return the estimated size in bytes
+     */
+    static long weigh(Node node) {
+        long weight = NODE_OVERHEAD + 2L * node.getNodeName().length();
+        String value = node.getNodeValue();
+        if (value != null) weight += 2L * value.length();
+        NamedNodeMap attributes = node.getAttributes();
+        if (attributes != null) {
+            for (int i = 0; i < attributes.getLength(); i++) weight += weigh(attributes.item(i));
+        }
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) weight += weigh(child);
+        return weight;
+    }
+
+    /**
+     * Fingerprint of the public fields of a converter configuration.
+     * Fields compiled by the converter when it is built are fingerprinted once, since later changes do not affect
+     * the converter. The other fields are snapshotted, collections by copy, and compared with the configuration on
+     * every {@link #get()}, so the fingerprint string is only rebuilt after one of them changed.
+     */
+    static final class ConfigFingerprint {
+        private final Object config;
+        private final String compiled;
+        private final Field[] liveFields;
+        private final Object[] values;
+        private String fingerprint;
+
+        /**
+         * Fingerprints a configuration.
+         * @param config the converter configuration
+         * @param compiledFields the names of the fields compiled by the converter when it is built
+         */
+        ConfigFingerprint(Object config, String... compiledFields) {
+            this.config = config;
+            List<String> compiledNames = Arrays.asList(compiledFields);
+            StringBuilder compiled = new StringBuilder(config.getClass().getName());
+            List<Field> live = new ArrayList<>();
+            for (Field field : config.getClass().getFields()) {
+                if (Modifier.isStatic(field.getModifiers())) continue;
+                if (compiledNames.contains(field.getName())) append(compiled, field, read(field));
+                else live.add(field);
+            }
+            this.compiled = compiled.toString();
+            this.liveFields = live.toArray(new Field[0]);
+            this.values = new Object[liveFields.length];
+        }
+
+        /**
+         * Returns the fingerprint of the current configuration.
+         * @return the configuration fingerprint, the same instance as long as the live fields are unchanged
+         */
+        synchronized String get() {
+            boolean changed = fingerprint == null;
+            for (int i = 0; i < liveFields.length && !changed; i++) changed = !Objects.equals(read(liveFields[i]), values[i]);
+            if (changed) {
+                StringBuilder builder = new StringBuilder(compiled);
+                for (int i = 0; i < liveFields.length; i++) {
+                    Object value = read(liveFields[i]);
+                    values[i] = snapshot(value);
+                    append(builder, liveFields[i], value);
+                }
+                fingerprint = builder.toString();
+            }
+            return fingerprint;
+        }
+
+        private Object read(Field field) {
+            try {
+                return field.get(config);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private static Object snapshot(Object value) {
+            if (value instanceof List) return new ArrayList<>((List<?>) value);
+            if (value instanceof Map) return new HashMap<>((Map<?, ?>) value);
+            return value;
+        }
+
+        private static void append(StringBuilder builder, Field field, Object value) {
+            builder.append('|').append(field.getName()).append('=').append(value);
+        }
+    }
+
+    /**
+     * Computes a 64-bit hash of a byte array, reading eight bytes at a time.
+     * @param bytes the bytes to hash
+     * @return the hash value
+     */
+    static long hash(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        long hash = 0x9E3779B97F4A7C15L ^ bytes.length;
+        while (buffer.remaining() >= 8) {
+            hash = Long.rotateLeft(hash ^ (buffer.getLong() * 0xC2B2AE3D27D4EB4FL), 31) * 0x9E3779B97F4A7C15L;
+        }
+        while (buffer.hasRemaining()) {
+            hash = Long.rotateLeft(hash ^ ((buffer.get() & 0xFFL) * 0x165667B19E3779F9L), 23) * 0xC2B2AE3D27D4EB4FL;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        return hash ^ (hash >>> 33);
+    }
+
+    /**
+     * A cached result with the weight of its entry.
+     */
+    private static final class Entry {
+        private final Object result;
+        private final long weight;
+
+        Entry(Object result, long weight) {
+            this.result = result;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Cache key of a conversion. The input bytes are kept to rule out hash collisions.
+     */
+    private static final class Key {
+        private final String direction;
+        private final String fingerprint;
+        private final byte[] input;
+        private final long hash;
+
+        Key(String direction, String fingerprint, byte[] input) {
+            this(direction, fingerprint, input, hash(input));
+        }
+
+        private Key(String direction, String fingerprint, byte[] input, long hash) {
+            this.direction = direction;
+            this.fingerprint = fingerprint;
+            this.input = input;
+            this.hash = hash;
+        }
+
+        /**
+         * Returns a key owning a copy of the input, so that later changes by the caller do not affect the cache.
+         * @return the copied key
+         */
+        Key copy() {
+            return new Key(direction, fingerprint, input.clone(), hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (hash ^ (hash >>> 32)) * 31 + fingerprint.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) return false;
+            Key other = (Key) obj;
+            return hash == other.hash && direction.equals(other.direction)
+                    && fingerprint.equals(other.fingerprint) && Arrays.equals(input, other.input);
+        }
+    }
+}
@@ -0,0 +1,462 @@
+// MIT License
+
+// Copyright (c) 2024 lila-lalab
+
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+package com.lalab.util.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import javax.xml.stream.XMLStreamException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Converts streams in three pipelined stages: reading and decompressing the input, converting, and compressing
+ * and writing the output. Each I/O stage runs on its own thread and the stages are linked by bounded chunk queues,
+ * so a large conversion takes about as long as its slowest stage instead of the sum of all stages.
+ * <p>
+ * JSON to XML conversion is done by a {@link J2XAsyncSession} and follows its rules for attribute fields.
+ */
+public class ConversionPipeline implements AutoCloseable {
+    private final int chunkSize;
+    private final int queueCapacity;
+    private final ExecutorService stages;
+
+    /**
+     * Compression of a pipeline input or output.
+     */
+    public enum Compression {
+        /**
+         * Uncompressed data.
+         */
+        NONE,
+
+        /**
+         * GZIP compressed data.
+         */
+        GZIP,
+
+        /**
+         * ZLIB deflate compressed data.
+         */
+        DEFLATE;
+
+        /**
+         * Returns the compression indicated by a file name extension.
+         *
+         * @param fileName the file name
+         * @return GZIP for ".gz", DEFLATE for ".zz" and ".deflate", NONE otherwise
+         */
+        public static Compression forFileName(String fileName) {
+            String name = fileName.toLowerCase(Locale.ROOT);
+            if (name.endsWith(".gz")) return GZIP;
+            if (name.endsWith(".zz") || name.endsWith(".deflate")) return DEFLATE;
+            return NONE;
+        }
+
+        InputStream decompress(InputStream in, int bufferSize) throws IOException {
+            switch (this) {
+                case GZIP:
+                    return new GZIPInputStream(in, bufferSize);
+                case DEFLATE:
+                    return new InflaterInputStream(in, new Inflater(), bufferSize);
+                default:
+                    return in;
+            }
+        }
+
+        OutputStream compress(OutputStream out, int bufferSize) throws IOException {
+            switch (this) {
+                case GZIP:
+                    return new GZIPOutputStream(out, bufferSize);
+                case DEFLATE:
+                    return new DeflaterOutputStream(out, new Deflater(), bufferSize);
+                default:
+                    return out;
+            }
+        }
+    }
+
+    /**
+     * Constructs a ConversionPipeline with 64 KiB chunks and 16 queued chunks per stage link.
+     */
+    public ConversionPipeline() {
+        this(64 * 1024, 16);
+    }
+
+    /**
+     * Constructs a ConversionPipeline with the specified buffering.
+     *
+     * @param chunkSize the size in bytes of the chunks passed between stages
+     * @param queueCapacity the number of chunks buffered between two stages
+     */
+    public ConversionPipeline(int chunkSize, int queueCapacity) {
+        this.chunkSize = chunkSize;
+        this.queueCapacity = queueCapacity;
+        this.stages = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "x2j2x-pipeline");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Converts an XML stream to JSON in the specified format. The streams are not closed.
+     *
+     * @param converter the converter for the conversion stage
+     * @param in the XML input stream
+     * @param inCompression the compression of the input
+     * @param out the output stream receiving the encoded JSON
+     * @param outCompression the compression of the output
+     * @param format the JSON output format
+     * @throws IOException if reading, writing or compressing fails
+     * @throws XMLStreamException if the XML input is malformed
+     */
+    public void x2J(X2JConverter converter, InputStream in, Compression inCompression,
+                    OutputStream out, Compression outCompression, JsonFormat format) throws IOException, XMLStreamException {
+        run(in, inCompression, out, outCompression, (input, output) -> {
+            JsonGenerator generator = format.factory().createGenerator(output);
+            converter.writex2J(new ChunkInputStream(input), generator);
+            generator.close();
+        });
+    }
+
+    /**
+     * Converts a JSON stream to XML. The streams are not closed.
+     *
+     * @param converter the converter for the conversion stage
+     * @param in the JSON input stream
+     * @param inCompression the compression of the input
+     * @param out the output stream receiving the UTF-8 encoded XML
+     * @param outCompression the compression of the output
+     * @throws IOException if reading, writing or compressing fails, or if the JSON input is malformed
+     * @throws XMLStreamException if the XML output cannot be written
+     */
+    public void j2x(J2XConverter converter, InputStream in, Compression inCompression,
+                    OutputStream out, Compression outCompression) throws IOException, XMLStreamException {
+        run(in, inCompression, out, outCompression, (input, output) -> {
+            J2XAsyncSession session = converter.newAsyncSession(output);
+            byte[] chunk;
+            while ((chunk = input.take()) != null) session.feed(chunk);
+            session.finish();
+            output.close();
+        });
+    }
+
+    /**
+     * Runs the reading and writing stages on pipeline threads and the conversion stage on the calling thread.
+     * Whatever the conversion throws, including errors, fails both queues and waits for the other stages to stop
+     * before it is rethrown.
+     */
+    private void run(InputStream in, Compression inCompression, OutputStream out, Compression outCompression,
+                     ConversionStage conversion) throws IOException, XMLStreamException {
+        ChunkQueue input = new ChunkQueue(queueCapacity);
+        ChunkQueue output = new ChunkQueue(queueCapacity);
+
+        Future<?> reader = stages.submit(() -> {
+            try {
+                InputStream source = inCompression.decompress(in, chunkSize);
+                byte[] buffer = new byte[chunkSize];
+                int length;
+                while ((length = source.read(buffer)) >= 0) {
+                    if (length > 0 && !input.put(Arrays.copyOf(buffer, length))) return;
+                }
+                input.close();
+            } catch (Throwable e) {
+                input.fail(e);
+            }
+        });
+        Future<?> writer = stages.submit(() -> {
+            try {
+                OutputStream sink = outCompression.compress(out, chunkSize);
+                byte[] chunk;
+                while ((chunk = output.take()) != null) sink.write(chunk);
+                if (sink instanceof DeflaterOutputStream) ((DeflaterOutputStream) sink).finish();
+                sink.flush();
+            } catch (Throwable e) {
+                output.fail(e);
+                throw e;
+            }
+            return null;
+        });
+
+        try {
+            conversion.convert(input, new ChunkOutputStream(output));
+        } catch (Throwable e) {
+            input.fail(e);
+            output.fail(e);
+            await(reader);
+            try {
+                await(writer);
+            } catch (IOException writeFailure) {
+                if (writeFailure != e && writeFailure.getCause() != e) e.addSuppressed(writeFailure);
+            }
+            Throwable readFailure = input.failure();
+            if (readFailure instanceof IOException && readFailure != e) {
+                // report the read failure, e.g. corrupt compressed input, rather than the parse error it caused
+                readFailure.addSuppressed(e);
+                throw (IOException) readFailure;
+            }
+            throw e;
+        }
+        input.discard();
+        await(writer);
+        await(reader);
+    }
+
+    private static void await(Future<?> stage) throws IOException {
+        try {
+            stage.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a pipeline stage");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException("Pipeline stage failed", e.getCause());
+        }
+    }
+
+    /**
+     * Stops the pipeline threads.
+     */
+    @Override
+    public void close() {
+        stages.shutdownNow();
+    }
+
+    private interface ConversionStage {
+        void convert(ChunkQueue input, OutputStream output) throws IOException, XMLStreamException;
+    }
+
+    /**
+     * A bounded queue of byte chunks between two stages. Both sides block until they can proceed, and a failure on
+     * either side wakes and fails both, so that neither stage stays blocked when the other one stops.
+     */
+    private static final class ChunkQueue {
+        private static final byte[] END = new byte[0];
+
+        private final ArrayDeque<byte[]> chunks;
+        private final int capacity;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+        private Throwable failure;
+        private boolean discarded;
+
+        ChunkQueue(int capacity) {
+            this.chunks = new ArrayDeque<>(capacity);
+            this.capacity = capacity;
+        }
+
+        /**
+         * Puts a chunk, waiting while the queue is full.
+         * @param chunk the chunk to put
+         * @return false if the consumer does not need further chunks
+         * @throws IOException if the other side failed
+         */
+        boolean put(byte[] chunk) throws IOException {
+            lock.lock();
+            try {
+                while (chunks.size() >= capacity && failure == null && !discarded) notFull.await();
+                checkFailure();
+                if (discarded) return false;
+                chunks.add(chunk);
+                notEmpty.signal();
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while queueing a chunk");
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Takes the next chunk, waiting while the queue is empty.
+         * @return the chunk, or null at the end of the data
+         * @throws IOException if the other side failed
+         */
+        byte[] take() throws IOException {
+            lock.lock();
+            try {
+                while (chunks.isEmpty() && failure == null) notEmpty.await();
+                checkFailure();
+                byte[] chunk = chunks.poll();
+                notFull.signal();
+                return chunk == END ? null : chunk;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a chunk");
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void close() throws IOException {
+            put(END);
+        }
+
+        void fail(Throwable e) {
+            lock.lock();
+            try {
+                if (failure == null) failure = e;
+                chunks.clear();
+                notEmpty.signalAll();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Returns the first failure of either side.
+         * @return the failure, or null
+         */
+        Throwable failure() {
+            lock.lock();
+            try {
+                return failure;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Drops the queued and further chunks once the consumer has read all the data it needs.
+         */
+        void discard() {
+            lock.lock();
+            try {
+                discarded = true;
+                chunks.clear();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void checkFailure() throws IOException {
+            Throwable e = failure;
+            if (e instanceof IOException) throw (IOException) e;
+            if (e != null) throw new IOException("Pipeline stage failed", e);
+        }
+    }
+
+    /**
+     * Reads the chunks of a queue as a stream.
+     */
+    private static final class ChunkInputStream extends InputStream {
+        private final ChunkQueue queue;
+        private byte[] chunk = new byte[0];
+        private int position;
+
+        ChunkInputStream(ChunkQueue queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) return -1;
+            return chunk[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) return 0;
+            if (!fill()) return -1;
+            int count = Math.min(length, chunk.length - position);
+            System.arraycopy(chunk, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+
+        private boolean fill() throws IOException {
+            if (chunk == null) return false;
+            while (position == chunk.length) {
+                chunk = queue.take();
+                position = 0;
+                if (chunk == null) return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Writes a stream into the chunks of a queue. Closing the stream marks the end of the data.
+     */
+    private final class ChunkOutputStream extends OutputStream {
+        private final ChunkQueue queue;
+        private byte[] buffer = new byte[chunkSize];
+        private int count;
+
+        ChunkOutputStream(ChunkQueue queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) flushChunk();
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (count == buffer.length) flushChunk();
+                int copied = Math.min(length, buffer.length - count);
+                System.arraycopy(data, offset, buffer, count, copied);
+                count += copied;
+                offset += copied;
+                length -= copied;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (buffer == null) return;
+            if (count > 0) flushChunk();
+            buffer = null;
+            queue.close();
+        }
+
+        private void flushChunk() throws IOException {
+            queue.put(Arrays.copyOf(buffer, count));
+            count = 0;
+        }
+    }
+}
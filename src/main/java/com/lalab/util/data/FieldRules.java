@@ -0,0 +1,105 @@
+// MIT License
+
+// Copyright (c) 2024 lila-lalab
+
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+package com.lalab.util.data;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Compiled rename, drop and flatten rules for the X2JConverter.
+ * Rules match the JSON field name a node would get without renaming, i.e. the element name without namespace alias,
+ * or the attribute name with its prefix, so each node needs a single table lookup.
+ */
+final class FieldRules {
+
+    /**
+     * Rules that leave every field unchanged.
+     */
+    static final FieldRules NONE = new FieldRules(Collections.emptyMap());
+
+    private final Map<String, Rule> rules;
+
+    private FieldRules(Map<String, Rule> rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * Compiles the configured rules into a lookup table.
+     *
+     * @param renameFields new field names by field name
+     * @param dropFields names of the fields to drop
+     * @param flattenFields names of the fields to flatten
+     * @return the compiled rules
+     */
+    static FieldRules compile(Map<String, String> renameFields, List<String> dropFields, List<String> flattenFields) {
+        if (renameFields.isEmpty() && dropFields.isEmpty() && flattenFields.isEmpty()) return NONE;
+        Map<String, Rule> rules = new HashMap<>();
+        for (Entry<String, String> rename : renameFields.entrySet())
+            rules.computeIfAbsent(rename.getKey(), Rule::new).name = rename.getValue();
+        for (String name : dropFields) rules.computeIfAbsent(name, Rule::new).drop = true;
+        for (String name : flattenFields) rules.computeIfAbsent(name, Rule::new).flatten = true;
+        return new FieldRules(rules);
+    }
+
+    /**
+     * Returns whether no rule is configured.
+     * @return true if every field is left unchanged
+     */
+    boolean isNone() {
+        return rules.isEmpty();
+    }
+
+    /**
+     * Returns the rule of a field.
+     * @param fieldName the field name before renaming
+     * @return the rule, or null if the field is left unchanged
+     */
+    Rule get(String fieldName) {
+        return rules.get(fieldName);
+    }
+
+    /**
+     * Returns whether a field is flattened.
+     * @param fieldName the field name before renaming
+     * @return true if elements of the field without child elements convert to their text value
+     */
+    boolean isFlattened(String fieldName) {
+        Rule rule = rules.get(fieldName);
+        return rule != null && rule.flatten;
+    }
+
+    /**
+     * The rules of a single field name.
+     */
+    static final class Rule {
+        String name;
+        boolean drop;
+        boolean flatten;
+
+        Rule(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,385 @@
+// MIT License
+
+// Copyright (c) 2024 lila-lalab
+
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.lalab.util.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteBufferFeeder;
+
+/**
+ * A push-style JSON to XML conversion session. JSON bytes are fed in chunks as they arrive and
+ * the XML output is written as soon as the fed tokens allow it, without buffering the whole JSON body.
+ * <p>
+ * The output matches {@link J2XConverter#j2x} except that attribute fields must precede the child elements
+ * and the value field of their object, and that a value field is written next to the child elements instead of replacing them.
+ * A session is not thread-safe.
+ */
+public class J2XAsyncSession {
+    private final J2XConverterConfig config;
+    private final NamespaceTable namespaces;
+    private final XMLStreamWriter writer;
+    private final JsonParser parser;
+    private final ByteBufferFeeder feeder;
+    private final Deque<Frame> frames = new ArrayDeque<>();
+    private final Deque<XmlElement> wrappers = new ArrayDeque<>();
+    private boolean rootDone = false;
+    private boolean finished = false;
+
+    /**
+     * Constructs a session writing the XML output to the specified writer.
+     *
+     * @param config the configuration for the conversion
+     * @param namespaces the namespace table of the configuration
+     * @param writer the XML stream writer receiving the output
+     * @throws IOException if the JSON parser cannot be created
+     * @throws XMLStreamException if the XML output cannot be written
+     */
+    J2XAsyncSession(J2XConverterConfig config, NamespaceTable namespaces, XMLStreamWriter writer) throws IOException, XMLStreamException {
+        this.config = config;
+        this.namespaces = namespaces;
+        this.writer = writer;
+        this.parser = new JsonFactory().createNonBlockingByteBufferParser();
+        this.feeder = (ByteBufferFeeder) parser.getNonBlockingInputFeeder();
+        writer.writeStartDocument("UTF-8", "1.0");
+        openRoot();
+    }
+
+    /**
+     * Feeds a chunk of JSON bytes and writes the XML output they complete.
+     *
+     * @param data the buffer holding the chunk
+     * @param offset the offset of the chunk in the buffer
+     * @param length the length of the chunk
+     * @throws IOException if the JSON input is malformed
+     * @throws XMLStreamException if the XML output cannot be written
+     */
+    public void feed(byte[] data, int offset, int length) throws IOException, XMLStreamException {
+        feed(ByteBuffer.wrap(data, offset, length));
+    }
+
+    /**
+     * Feeds a chunk of JSON bytes and writes the XML output they complete.
+     *
+     * @param data the chunk of JSON bytes
+     * @throws IOException if the JSON input is malformed
+     * @throws XMLStreamException if the XML output cannot be written
+     */
+    public void feed(byte[] data) throws IOException, XMLStreamException {
+        feed(data, 0, data.length);
+    }
+
+    /**
+     * Feeds the remaining bytes of a buffer and writes the XML output they complete.
+     * The buffer is fully consumed when the method returns and may be reused by the caller.
+     *
+     * @param data the buffer holding the chunk
+     * @throws IOException if the JSON input is malformed
+     * @throws XMLStreamException if the XML output cannot be written
+     */
+    public void feed(ByteBuffer data) throws IOException, XMLStreamException {
+        if (finished) throw new IllegalStateException("The session is already finished");
+        if (!data.hasRemaining()) return;
+        feeder.feedInput(data.slice());
+        data.position(data.limit());
+        drain();
+    }
+
+    /**
+     * Signals the end of the JSON input and completes the XML document.
+     *
+     * @throws IOException if the JSON input is malformed or incomplete
+     * @throws XMLStreamException if the XML output cannot be written
+     */
+    public void finish() throws IOException, XMLStreamException {
+        if (finished) return;
+        finished = true;
+        feeder.endOfInput();
+        drain();
+        if (!rootDone) throw new IOException("Unexpected end of JSON input");
+        while (!wrappers.isEmpty()) wrappers.pop().close();
+        writer.writeEndDocument();
+        writer.flush();
+        parser.close();
+    }
+
+    /**
+     * Opens the root elements of the output, wrapped in a SOAP envelope if configured.
+     * @throws XMLStreamException if the XML output cannot be written
+     */
+    private void openRoot() throws XMLStreamException {
+        XmlElement root;
+        if (config.wrapSoapEnvelope) {
+            String soapNamespace = config.soapVersion.equals("1.1") ? J2XConverter.SOAPNS_1_1 : J2XConverter.SOAPNS_1_2;
+            XmlElement envelope = new XmlElement("soapenv", "Envelope", soapNamespace);
+            envelope.outermost = true;
+            wrappers.push(envelope.start());
+            XmlElement body = new XmlElement("soapenv", "Body", soapNamespace);
+            if (config.soapBodyAsRoot) {
+                frames.push(new Frame(body, config.rootName, config.createNamespace));
+                wrappers.push(body);
+                return;
+            }
+            wrappers.push(body.start());
+            root = newElement(config.createNamespace, config.rootName);
+            frames.push(new Frame(root, null, config.createNamespace));
+        } else {
+            root = newElement(config.createNamespace, config.rootName);
+            root.outermost = true;
+            frames.push(new Frame(root, null, false));
+        }
+        wrappers.push(root);
+    }
+
+    /**
+     * Processes every token available from the fed input.
+     * @throws IOException if the JSON input is malformed
+     * @throws XMLStreamException if the XML output cannot be written
+     */
+    private void drain() throws IOException, XMLStreamException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            if (rootDone) throw new IOException("Unexpected content after the JSON root value");
+            handle(token);
+        }
+    }
+
+    /**
+     * Writes the XML output of a JSON token.
+     * @param token the current JSON token
+     * @throws IOException if the JSON input is malformed
+     * @throws XMLStreamException if the XML output cannot be written
+     */
+    private void handle(JsonToken token) throws IOException, XMLStreamException {
+        Frame frame = frames.peek();
+        switch (token) {
+            case FIELD_NAME:
+                frame.fieldName = parser.getCurrentName();
+                return;
+            case END_OBJECT:
+            case END_ARRAY:
+                frames.pop();
+                if (frame.array && frame.items == 0 && !config.ignoreEmptyArray) {
+                    frame.element.start();
+                    newElement(frame.setNamespace, frame.name).start().close();
+                }
+                if (frame.ownsElement) frame.element.close();
+                if (frames.size() == 1 && frames.peek().root) {
+                    frames.pop();
+                    rootDone = true;
+                }
+                return;
+            default:
+                break;
+        }
+
+        if (frame.root) {
+            mapValue(token, frame.element, frame.name, frame.setNamespace, false);
+            if (token.isScalarValue()) {
+                frames.pop();
+                rootDone = true;
+            }
+        } else if (frame.array) {
+            frame.items++;
+            if (token == JsonToken.START_ARRAY) {
+                frames.push(Frame.array(frame.element, frame.name, false, false));
+            } else {
+                frame.element.start();
+                mapValue(token, newElement(frame.setNamespace, frame.name), frame.name, false, true);
+            }
+        } else {
+            String key = frame.fieldName;
+            if (token.isScalarValue() && !config.ignoreXmlAttribute && key.startsWith(config.xmlAttributePrefix)) {
+                frame.element.attribute(key.substring(config.xmlAttributePrefix.length()), scalarText(token));
+            } else if (token.isScalarValue() && key.equals(config.xmlValueFieldName)) {
+                frame.element.start();
+                writer.writeCharacters(scalarText(token));
+            } else if (token == JsonToken.START_ARRAY) {
+                frames.push(Frame.array(frame.element, key, false, false));
+            } else {
+                frame.element.start();
+                mapValue(token, newElement(frame.setNamespace, key), key, false, true);
+            }
+        }
+    }
+
+    /**
+     * Maps the JSON value starting at the current token into an XML element.
+     *
+     * @param token the first token of the value
+     * @param element the XML element receiving the value
+     * @param fieldName the field name (if any)
+     * @param setNamespace whether to set the namespace on child elements
+     * @param ownsElement whether the element is closed at the end of the value
+     * @throws IOException if the JSON input is malformed
+     * @throws XMLStreamException if the XML output cannot be written
+     */
+    private void mapValue(JsonToken token, XmlElement element, String fieldName, boolean setNamespace, boolean ownsElement) throws IOException, XMLStreamException {
+        if (token == JsonToken.START_OBJECT) {
+            frames.push(Frame.object(element, setNamespace, ownsElement));
+        } else if (token == JsonToken.START_ARRAY) {
+            String name = fieldName == null ? config.unnamedArrXmlNodeName : fieldName;
+            frames.push(Frame.array(element, name, setNamespace, ownsElement));
+        } else {
+            element.start();
+            writer.writeCharacters(scalarText(token));
+            if (ownsElement) element.close();
+        }
+    }
+
+    /**
+     * Returns the text of the current scalar token the way JsonNode.asText would render it.
+     * @param token the current JSON token
+     * @return the text of the value
+     * @throws IOException if the JSON input is malformed
+     */
+    private String scalarText(JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_NUMBER_INT:
+                return parser.getNumberValue().toString();
+            case VALUE_NUMBER_FLOAT:
+                return String.valueOf(parser.getDoubleValue());
+            case VALUE_TRUE:
+                return "true";
+            case VALUE_FALSE:
+                return "false";
+            case VALUE_NULL:
+                return "null";
+            default:
+                return parser.getText();
+        }
+    }
+
+    /**
+     * Creates a new XML element with or without namespace.
+     *
+     * @param setNamespace whether to set the namespace
+     * @param elmName the name of the element
+     * @return the new XML element, not yet written
+     */
+    private XmlElement newElement(boolean setNamespace, String elmName) {
+        if (setNamespace) return new XmlElement(config.alias, elmName, config.namespace);
+        QName qName = namespaces.elementName(elmName);
+        if (qName != null) return new XmlElement(qName.getPrefix(), qName.getLocalPart(), qName.getNamespaceURI());
+        return new XmlElement(null, elmName, null);
+    }
+
+    /**
+     * An XML element whose start tag is written once its first attribute-free content is known.
+     */
+    private final class XmlElement {
+        private final String prefix;
+        private final String localName;
+        private final String namespace;
+        private List<String> attributes;
+        private boolean started;
+        private boolean outermost;
+
+        XmlElement(String prefix, String localName, String namespace) {
+            this.prefix = prefix;
+            this.localName = localName;
+            this.namespace = namespace;
+        }
+
+        void attribute(String name, String value) throws XMLStreamException {
+            if (started) throw new XMLStreamException("Attribute '" + name + "' of element '" + localName + "' follows its content");
+            if (attributes == null) attributes = new ArrayList<>();
+            attributes.add(name);
+            attributes.add(value);
+        }
+
+        XmlElement start() throws XMLStreamException {
+            if (started) return this;
+            started = true;
+            if (namespace != null) writer.writeStartElement(prefix, localName, namespace);
+            else writer.writeStartElement(localName);
+            if (outermost) {
+                for (Map.Entry<String, String> namespace : namespaces.prefixesByUri().entrySet()) {
+                    if (namespace.getValue().isEmpty()) writer.writeDefaultNamespace(namespace.getKey());
+                    else writer.writeNamespace(namespace.getValue(), namespace.getKey());
+                }
+            }
+            if (attributes != null) {
+                for (int i = 0; i < attributes.size(); i += 2) {
+                    QName qName = namespaces.qualifiedName(attributes.get(i));
+                    if (qName != null) writer.writeAttribute(qName.getPrefix(), qName.getNamespaceURI(), qName.getLocalPart(), attributes.get(i + 1));
+                    else writer.writeAttribute(attributes.get(i), attributes.get(i + 1));
+                }
+                attributes = null;
+            }
+            return this;
+        }
+
+        void close() throws XMLStreamException {
+            start();
+            writer.writeEndElement();
+        }
+    }
+
+    /**
+     * A JSON container, or the root value, being mapped into an XML element.
+     */
+    private static final class Frame {
+        private final XmlElement element;
+        private final String name;
+        private final boolean setNamespace;
+        private final boolean ownsElement;
+        private final boolean array;
+        private final boolean root;
+        private String fieldName;
+        private int items;
+
+        Frame(XmlElement element, String name, boolean setNamespace) {
+            this(element, name, setNamespace, false, false, true);
+        }
+
+        private Frame(XmlElement element, String name, boolean setNamespace, boolean ownsElement, boolean array, boolean root) {
+            this.element = element;
+            this.name = name;
+            this.setNamespace = setNamespace;
+            this.ownsElement = ownsElement;
+            this.array = array;
+            this.root = root;
+        }
+
+        static Frame object(XmlElement element, boolean setNamespace, boolean ownsElement) {
+            return new Frame(element, null, setNamespace, ownsElement, false, false);
+        }
+
+        static Frame array(XmlElement element, String name, boolean setNamespace, boolean ownsElement) {
+            return new Frame(element, name, setNamespace, ownsElement, true, false);
+        }
+    }
+}
@@ -22,21 +22,50 @@
 
 package com.lalab.util.data;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 /**
  * A converter class to convert JSON data to XML format.
  */
 public class J2XConverter {
     J2XConverterConfig config;
+    private XMLOutputFactory xmlOutputFactory;
+    private ObjectMapper objectMapper;
+    private final NamespaceTable namespaces;
+    private final ConversionCache.ConfigFingerprint configFingerprint;
     public static final String SOAPNS_1_1 = "http://schemas.xmlsoap.org/soap/envelope/";
     public static final String SOAPNS_1_2 = "http://www.w3.org/2003/05/soap-envelope";
 
@@ -47,6 +76,11 @@ public class J2XConverter {
      */
     public J2XConverter(J2XConverterConfig config) {
         this.config = config;
+        this.xmlOutputFactory = XMLOutputFactory.newInstance();
+        this.xmlOutputFactory.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, true);
+        this.objectMapper = new ObjectMapper();
+        this.namespaces = NamespaceTable.compile(config.namespacePrefixes);
+        this.configFingerprint = new ConversionCache.ConfigFingerprint(config, "namespacePrefixes");
     }
 
     /**
@@ -77,9 +111,255 @@ public class J2XConverter {
             Element root = getNewXmlElm(doc, config.createNamespace, config.rootName);
             doc.appendChild(mapJsonElement(doc, root, json, null, false));
         }
+        for (Map.Entry<String, String> namespace : namespaces.prefixesByUri().entrySet()) {
+            String declaration = namespace.getValue().isEmpty() ? XMLConstants.XMLNS_ATTRIBUTE : "xmlns:" + namespace.getValue();
+            doc.getDocumentElement().setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, declaration, namespace.getKey());
+        }
         return doc;
     }
 
+    /**
+     * Converts a JSON stream to a sequence of XML Documents, each holding a batch of the items of the array selected by
+     * {@link J2XConverterConfig#batchArrayPath}. A batch is converted as if the array held only its items and was the
+     * only field along the path, and is wrapped like a j2x result, including the SOAP envelope.
+     * Items are read one at a time and every batch is released once the handler returns, so memory stays bounded
+     * by the batch size. The size limit covers the whole document as a default Transformer serializes it, with the
+     * envelope measured once before the first item, and a single item above the limit still gets a batch of its own. Fields outside the path are not converted, a value that is not an array is converted as
+     * a single batch, and no batch is produced if the path does not exist. Array items are not part of the path.
+     *
+     * @param in the JSON input stream to convert
+     * @param handler the handler receiving the batch documents in order
+     * @return the number of batches
+     * @throws IOException if the JSON input cannot be read or the handler fails
+     * @throws ParserConfigurationException if a DocumentBuilder cannot be created
+     * @throws X2JConverter.InvalidJsonPointerException if the path is not a JSON Pointer or a segment of it meets an array
+     */
+    public int j2xBatches(InputStream in, BatchHandler handler) throws IOException, ParserConfigurationException {
+        try (JsonParser parser = objectMapper.createParser(in)) {
+            return j2xBatches(parser, handler);
+        }
+    }
+
+    /**
+     * Converts the JSON value read by a parser to a sequence of XML Documents, as {@link #j2xBatches(InputStream, BatchHandler)} does.
+     *
+     * @param parser the JSON parser positioned before or at the start of the value
+     * @param handler the handler receiving the batch documents in order
+     * @return the number of batches
+     * @throws IOException if the JSON input cannot be read or the handler fails
+     * @throws ParserConfigurationException if a DocumentBuilder cannot be created
+     * @throws X2JConverter.InvalidJsonPointerException if the path is not a JSON Pointer or a segment of it meets an array
+     */
+    public int j2xBatches(JsonParser parser, BatchHandler handler) throws IOException, ParserConfigurationException {
+        List<String> path = new ArrayList<>();
+        try {
+            for (JsonPointer pointer = JsonPointer.compile(config.batchArrayPath); !pointer.matches(); pointer = pointer.tail())
+                path.add(pointer.getMatchingProperty());
+        } catch (IllegalArgumentException e) {
+            throw new X2JConverter.InvalidJsonPointerException(config.batchArrayPath);
+        }
+
+        if (!parser.hasCurrentToken() && parser.nextToken() == null) return 0;
+        for (String segment : path) {
+            if (parser.currentToken() == JsonToken.START_ARRAY) throw new X2JConverter.InvalidJsonPointerException(config.batchArrayPath);
+            if (parser.currentToken() != JsonToken.START_OBJECT) return 0;
+            while (parser.nextToken() == JsonToken.FIELD_NAME && !parser.currentName().equals(segment)) {
+                parser.nextToken();
+                parser.skipChildren();
+            }
+            if (parser.currentToken() != JsonToken.FIELD_NAME) return 0;
+            parser.nextToken();
+        }
+
+        List<JsonNode> items = new ArrayList<>();
+        int batches = 0;
+        boolean array = parser.currentToken() == JsonToken.START_ARRAY;
+        long size = array && config.batchMaxBytes > 0 ? envelopeSize(path) : 0;
+        long envelope = size;
+        String itemName = path.isEmpty() ? config.unnamedArrXmlNodeName : path.get(path.size() - 1);
+        while (!array || parser.nextToken() != JsonToken.END_ARRAY) {
+            JsonNode item = objectMapper.readTree(parser);
+            long itemSize = estimateXmlSize(item, itemName);
+            if (!items.isEmpty() && ((config.batchMaxItems > 0 && items.size() >= config.batchMaxItems)
+                    || (config.batchMaxBytes > 0 && size + itemSize > config.batchMaxBytes))) {
+                handler.handle(j2x(batchJson(path, items, array)), batches++);
+                items.clear();
+                size = envelope;
+            }
+            items.add(item);
+            size += itemSize;
+            if (!array) break;
+        }
+        if (!items.isEmpty()) handler.handle(j2x(batchJson(path, items, array)), batches++);
+        return batches;
+    }
+
+    /**
+     * Builds the JSON value converted for a batch, nesting the batch items along the path of the array.
+     *
+     * @param path the field names leading to the array
+     * @param items the items of the batch
+     * @param array whether the selected value is an array rather than a single item
+     * @return the JSON value of the batch
+     */
+    private JsonNode batchJson(List<String> path, List<JsonNode> items, boolean array) {
+        JsonNode json = array ? new ArrayNode(JsonNodeFactory.instance, items) : items.get(0);
+        for (int i = path.size() - 1; i >= 0; i--) {
+            ObjectNode parent = new ObjectNode(JsonNodeFactory.instance);
+            parent.set(path.get(i), json);
+            json = parent;
+        }
+        return json;
+    }
+
+    /**
+     * Measures the serialized size of a batch document without items, i.e. the XML declaration, the SOAP envelope
+     * and the elements along the path.
+     *
+     * @param path the field names leading to the array
+     * @return the size in UTF-8 bytes
+     * @throws IOException if the document cannot be serialized
+     * @throws ParserConfigurationException if a DocumentBuilder cannot be created
+     */
+    private long envelopeSize(List<String> path) throws IOException, ParserConfigurationException {
+        CountingOutputStream out = new CountingOutputStream();
+        try {
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.transform(new DOMSource(j2x(batchJson(path, Collections.emptyList(), true))), new StreamResult(out));
+        } catch (TransformerException e) {
+            throw new IOException(e);
+        }
+        return out.count;
+    }
+
+    /**
+     * Estimates an upper bound of the UTF-8 bytes of the XML written for a JSON value, including escaped characters.
+     *
+     * @param json the JSON value
+     * @param name the name of the element holding the value
+     * @return the estimated XML size in bytes
+     */
+    private long estimateXmlSize(JsonNode json, String name) {
+        long tagSize = 2L * utf8Length(name) + 5;
+        if (config.createNamespace) tagSize += 2L * (utf8Length(config.alias) + 1);
+        switch (json.getNodeType()) {
+            case ARRAY:
+                if (json.size() == 0) return config.ignoreEmptyArray ? 0 : tagSize;
+                long arraySize = 0;
+                for (JsonNode item : json) arraySize += estimateXmlSize(item, name);
+                return arraySize;
+            case OBJECT:
+                long objectSize = tagSize;
+                for (Iterator<Map.Entry<String, JsonNode>> fields = json.fields(); fields.hasNext();) {
+                    Map.Entry<String, JsonNode> field = fields.next();
+                    String key = field.getKey();
+                    JsonNode value = field.getValue();
+                    if (!config.ignoreXmlAttribute && key.startsWith(config.xmlAttributePrefix) && !value.isContainerNode())
+                        objectSize += utf8Length(key) - utf8Length(config.xmlAttributePrefix) + escapedLength(value.asText()) + 4;
+                    else if (key.equals(config.xmlValueFieldName) && !value.isContainerNode())
+                        objectSize += escapedLength(value.asText());
+                    else
+                        objectSize += estimateXmlSize(value, key);
+                }
+                return objectSize;
+            default:
+                return tagSize + escapedLength(json.asText());
+        }
+    }
+
+    /**
+     * Counts the UTF-8 bytes of a string without encoding it.
+     *
+     * @param text the string
+     * @return the UTF-8 length
+     */
+    static long utf8Length(String text) {
+        long length = text.length();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x800) length += Character.isSurrogate(c) ? 1 : 2;
+            else if (c >= 0x80) length++;
+        }
+        return length;
+    }
+
+    /**
+     * Counts the UTF-8 bytes of a text value once escaped in XML content or in an attribute value.
+     *
+     * @param text the text value
+     * @return the escaped UTF-8 length
+     */
+    static long escapedLength(String text) {
+        long length = utf8Length(text);
+        for (int i = 0; i < text.length(); i++) {
+            switch (text.charAt(i)) {
+                case '&': length += 4; break;  // &amp;
+                case '"': length += 5; break;  // &quot;
+                case '\r': length += 4; break; // &#13;
+                case '<':
+                case '>': length += 3; break;  // &lt; &gt;
+                default: break;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Output stream discarding the data written to it and counting its bytes.
+     */
+    private static final class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    /**
+     * Receives the documents of a batch conversion.
+     */
+    @FunctionalInterface
+    public interface BatchHandler {
+        /**
+         * Handles a batch document. The document is not used by the converter afterwards.
+         *
+         * @param batch the XML Document of the batch
+         * @param index the zero-based index of the batch
+         * @throws IOException if the batch cannot be processed
+         */
+        void handle(Document batch, int index) throws IOException;
+    }
+
+    /**
+     * Starts a push-style conversion session that writes XML to a writer while JSON bytes are fed to it.
+     *
+     * @param writer the writer to write the XML data to
+     * @return the conversion session
+     * @throws IOException if the JSON parser cannot be created
+     * @throws XMLStreamException if the XML output cannot be written
+     */
+    public J2XAsyncSession newAsyncSession(Writer writer) throws IOException, XMLStreamException {
+        return new J2XAsyncSession(config, namespaces, xmlOutputFactory.createXMLStreamWriter(writer));
+    }
+
+    /**
+     * Starts a push-style conversion session that writes UTF-8 encoded XML to an output stream while JSON bytes are fed to it.
+     *
+     * @param out the output stream to write the XML data to
+     * @return the conversion session
+     * @throws IOException if the JSON parser cannot be created
+     * @throws XMLStreamException if the XML output cannot be written
+     */
+    public J2XAsyncSession newAsyncSession(OutputStream out) throws IOException, XMLStreamException {
+        return new J2XAsyncSession(config, namespaces, xmlOutputFactory.createXMLStreamWriter(out, "UTF-8"));
+    }
+
     /**
      * Creates a new SOAP envelope element based on the SOAP version.
      *
@@ -105,11 +385,25 @@ public class J2XConverter {
     private Element getNewXmlElm(Document doc, boolean setNamespace, String elmName) {
         if (setNamespace) {
             return doc.createElementNS(config.namespace, config.alias + ":" + elmName);
+        }
+        QName qName = namespaces.elementName(elmName);
+        if (qName != null) {
+            return doc.createElementNS(qName.getNamespaceURI(), elmName);
         } else {
             return doc.createElement(elmName);
         }
     }
 
+    /**
+     * Returns the fingerprint of the configuration keying the cached results of this converter. The namespace
+     * prefixes are fingerprinted as they were when the converter was built, the other fields as they are now.
+     *
+     * @return the configuration fingerprint
+     */
+    String configFingerprint() {
+        return configFingerprint.get();
+    }
+
     /**
      * Maps a JSON node to an XML element.
      *
@@ -144,7 +438,9 @@ public class J2XConverter {
                 json.fields().forEachRemaining(f -> {
                     if (!config.ignoreXmlAttribute && f.getKey().startsWith(config.xmlAttributePrefix) && !f.getValue().isContainerNode()) {
                         String key = f.getKey().substring(config.xmlAttributePrefix.length());
-                        currentNode.setAttribute(key, f.getValue().asText());
+                        QName qName = namespaces.qualifiedName(key);
+                        if (qName != null) currentNode.setAttributeNS(qName.getNamespaceURI(), key, f.getValue().asText());
+                        else currentNode.setAttribute(key, f.getValue().asText());
                     } else if (f.getKey().equals(config.xmlValueFieldName) && !f.getValue().isContainerNode()) {
                         currentNode.setTextContent(f.getValue().asText());
                     } else {
@@ -22,6 +22,9 @@
 
 package com.lalab.util.data;
 
+import java.util.Collections;
+import java.util.Map;
+
 /**
  * Configuration class for J2XConverter.
  */
@@ -80,6 +83,14 @@ public class J2XConverterConfig {
      */
     public String namespace = null;
 
+    /**
+     * Prefixes by namespace URI. JSON field names with one of these prefixes, like "prefix:localName", become elements
+     * and attributes in the namespace of the prefix, and the namespaces are declared once on the document element.
+     * A namespace with an empty prefix is declared as the default namespace and holds every unprefixed element.
+     * The prefixes are compiled when the converter is built.
+     */
+    public Map<String, String> namespacePrefixes = Collections.emptyMap();
+
     // SOAP specific options
 
     /**
@@ -96,4 +107,23 @@ public class J2XConverterConfig {
      * Whether to use the SOAP body as the root element.
      */
     public boolean soapBodyAsRoot = false;
-}
\ No newline at end of file
+
+    // Batch options
+
+    /**
+     * JSON Pointer of the array split by the batch conversion. If empty, the top-level value is split.
+     */
+    public String batchArrayPath = "";
+
+    /**
+     * The maximum number of array items per batch document, or 0 for no limit.
+     */
+    public int batchMaxItems = 1000;
+
+    /**
+     * The maximum UTF-8 size in bytes of a batch document serialized by a default Transformer, or 0 for no limit.
+     * The envelope around the items is measured once and the items are estimated from above, escaping included.
+     * An item larger than the limit on its own still gets a batch.
+     */
+    public long batchMaxBytes = 0;
+}
@@ -0,0 +1,75 @@
+// MIT License
+
+// Copyright (c) 2024 lila-lalab
+
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+package com.lalab.util.data;
+
+import com.fasterxml.jackson.core.JsonFactory;
+
+/**
+ * Output formats of the X2JConverter.
+ * The binary formats require the optional jackson-dataformat-smile or jackson-dataformat-cbor module on the classpath.
+ */
+public enum JsonFormat {
+    /**
+     * Textual JSON.
+     */
+    JSON,
+
+    /**
+     * Binary Smile encoding.
+     */
+    SMILE,
+
+    /**
+     * Binary CBOR encoding.
+     */
+    CBOR;
+
+    private volatile JsonFactory factory;
+
+    /**
+     * Returns the shared factory creating generators of this format.
+     *
+     * @return the JSON factory of this format
+     * @throws IllegalStateException if the dataformat module of this format is not on the classpath
+     */
+    public JsonFactory factory() {
+        JsonFactory result = factory;
+        if (result == null) {
+            try {
+                switch (this) {
+                    case SMILE:
+                        result = BinaryJsonFactories.smile();
+                        break;
+                    case CBOR:
+                        result = BinaryJsonFactories.cbor();
+                        break;
+                    default:
+                        result = new JsonFactory();
+                }
+            } catch (NoClassDefFoundError e) {
+                throw new IllegalStateException(name() + " output requires the jackson-dataformat-" + name().toLowerCase() + " module", e);
+            }
+            factory = result;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,155 @@
+// MIT License
+
+// Copyright (c) 2024 lila-lalab
+
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+package com.lalab.util.data;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.namespace.QName;
+
+/**
+ * Precomputed namespace URI to prefix table of a converter.
+ * JSON field names of namespaced nodes are "prefix:localName" with the prefix configured for the node namespace URI,
+ * whatever prefix the document uses. Resolved names are cached, so converting a node costs a constant-time lookup
+ * and no string splitting once its name has been seen. Every converter compiles its own table, so the caches only
+ * hold the names of its own documents.
+ */
+final class NamespaceTable {
+    private static final int MAX_CACHED_NAMES = 4096;
+    private static final QName UNMAPPED = new QName("");
+
+    private final Map<String, String> prefixesByUri;
+    private final Map<String, String> urisByPrefix = new HashMap<>();
+    private final Map<String, Map<String, String>> fieldNames = new ConcurrentHashMap<>();
+    private final Map<String, QName> qualifiedNames = new ConcurrentHashMap<>();
+    private final Map<String, QName> elementNames = new ConcurrentHashMap<>();
+    private final String defaultUri;
+
+    private NamespaceTable(Map<String, String> prefixesByUri) {
+        this.prefixesByUri = prefixesByUri;
+        for (Entry<String, String> entry : prefixesByUri.entrySet()) urisByPrefix.put(entry.getValue(), entry.getKey());
+        this.defaultUri = urisByPrefix.get("");
+    }
+
+    /**
+     * Compiles the configured prefixes into a table.
+     * @param prefixesByUri the prefixes by namespace URI, where an empty prefix leaves the names unprefixed
+     * @return the compiled table
+     */
+    static NamespaceTable compile(Map<String, String> prefixesByUri) {
+        return new NamespaceTable(new HashMap<>(prefixesByUri));
+    }
+
+    /**
+     * Returns whether no namespace is configured.
+     * @return true if the table is empty
+     */
+    boolean isNone() {
+        return prefixesByUri.isEmpty();
+    }
+
+    /**
+     * Returns the prefixes by namespace URI.
+     * @return the configured prefixes
+     */
+    Map<String, String> prefixesByUri() {
+        return prefixesByUri;
+    }
+
+    /**
+     * Check whether a namespace URI is in the table.
+     * @param uri the namespace URI, or null
+     * @return true if a prefix is configured for the URI
+     */
+    boolean contains(String uri) {
+        return uri != null && prefixesByUri.containsKey(uri);
+    }
+
+    /**
+     * Returns the JSON field name of a namespaced XML node.
+     * @param uri the namespace URI of the node
+     * @param localName the local name of the node
+     * @return the name prefixed with the configured prefix of the URI, or null if the URI is not in the table
+     */
+    String fieldName(String uri, String localName) {
+        Map<String, String> names = fieldNames.get(uri);
+        if (names == null) {
+            String prefix = prefixesByUri.get(uri);
+            if (prefix == null) return null;
+            names = fieldNames.computeIfAbsent(uri, key -> new ConcurrentHashMap<>());
+        }
+        String name = names.get(localName);
+        if (name == null) {
+            String prefix = prefixesByUri.get(uri);
+            name = prefix.isEmpty() ? localName : prefix + ":" + localName;
+            if (names.size() < MAX_CACHED_NAMES) names.put(localName, name);
+        }
+        return name;
+    }
+
+    /**
+     * Returns the namespace mapped to the empty prefix.
+     * @return the default namespace URI, or null if no URI has an empty prefix
+     */
+    String defaultUri() {
+        return defaultUri;
+    }
+
+    /**
+     * Resolves the JSON field name of an element to a qualified XML name. Unprefixed names belong to the namespace
+     * mapped to the empty prefix, if any, since that namespace is declared as the default one of the document.
+     * @param fieldName the JSON field name
+     * @return the qualified name, or null if the name is in no namespace of the table
+     */
+    QName elementName(String fieldName) {
+        if (defaultUri == null || fieldName.indexOf(':') >= 0) return qualifiedName(fieldName);
+        QName name = elementNames.get(fieldName);
+        if (name == null) {
+            name = new QName(defaultUri, fieldName, "");
+            if (elementNames.size() < MAX_CACHED_NAMES) elementNames.put(fieldName, name);
+        }
+        return name;
+    }
+
+    /**
+     * Resolves a JSON field name whose prefix is in the table to a qualified XML name.
+     * Attribute names use this lookup only, since unprefixed attributes are in no namespace.
+     * @param fieldName the JSON field name
+     * @return the qualified name, or null if the name has no prefix of the table
+     */
+    QName qualifiedName(String fieldName) {
+        QName name = qualifiedNames.get(fieldName);
+        if (name == null) {
+            name = UNMAPPED;
+            int separator = fieldName.indexOf(':');
+            if (separator > 0) {
+                String prefix = fieldName.substring(0, separator);
+                String uri = urisByPrefix.get(prefix);
+                if (uri != null) name = new QName(uri, fieldName.substring(separator + 1), prefix);
+            }
+            if (qualifiedNames.size() < MAX_CACHED_NAMES) qualifiedNames.put(fieldName, name);
+        }
+        return name == UNMAPPED ? null : name;
+    }
+}
@@ -0,0 +1,178 @@
+// MIT License
+
+// Copyright (c) 2024 lila-lalab
+
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+package com.lalab.util.data;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Compiled include/exclude path projection for the X2JConverter.
+ * Paths are JSON Pointer expressions over the converted JSON field names, where a "*" segment matches any field name.
+ * Array items are transparent, so "/person/name" selects the name of every person item.
+ */
+final class PathProjection {
+    private static final String WILDCARD = "*";
+
+    /**
+     * Projection that keeps every field.
+     */
+    static final PathProjection NONE = new PathProjection(new Step(), true);
+
+    private final Step root;
+    private final boolean includeAll;
+
+    private PathProjection(Step root, boolean includeAll) {
+        this.root = root;
+        this.includeAll = includeAll;
+    }
+
+    /**
+     * Compiles the include and exclude paths into a projection.
+     *
+     * @param includePaths paths whose subtrees are converted, or an empty list to convert everything
+     * @param excludePaths paths whose subtrees are skipped
+     * @return the compiled projection
+     * @throws X2JConverter.InvalidJsonPointerException if a path is not a valid JSON Pointer expression
+     */
+    static PathProjection compile(List<String> includePaths, List<String> excludePaths) {
+        if (includePaths.isEmpty() && excludePaths.isEmpty()) return NONE;
+        Step root = new Step();
+        for (String path : includePaths) add(root, path, true).include = true;
+        for (String path : excludePaths) add(root, path, false).exclude = true;
+        normalize(root);
+        return new PathProjection(root, includePaths.isEmpty() || root.include);
+    }
+
+    /**
+     * Returns the step of the JSON root.
+     * @return the root step
+     */
+    Step root() {
+        return root;
+    }
+
+    /**
+     * Returns whether the JSON root is fully included.
+     * @return true if the root subtree is included
+     */
+    boolean includeAll() {
+        return includeAll;
+    }
+
+    /**
+     * Returns whether this projection keeps every field.
+     * @return true if no path was configured
+     */
+    boolean isNone() {
+        return this == NONE;
+    }
+
+    private static Step add(Step root, String path, boolean include) {
+        if (!path.startsWith("/")) throw new X2JConverter.InvalidJsonPointerException(path);
+        Step step = root;
+        step.leadsToInclude |= include;
+        if (path.length() == 1) return step;
+        for (String segment : path.substring(1).split("/", -1)) {
+            String name = segment.replace("~1", "/").replace("~0", "~");
+            if (name.equals(WILDCARD)) {
+                if (step.wildcard == null) step.wildcard = new Step();
+                step = step.wildcard;
+            } else {
+                step = step.named.computeIfAbsent(name, k -> new Step());
+            }
+            step.leadsToInclude |= include;
+        }
+        return step;
+    }
+
+    /**
+     * Merges every wildcard step into its named siblings so that a lookup only has to follow one step.
+     */
+    private static void normalize(Step step) {
+        if (step.wildcard != null) {
+            for (Step named : step.named.values()) merge(named, step.wildcard);
+            normalize(step.wildcard);
+        }
+        for (Step named : step.named.values()) normalize(named);
+    }
+
+    private static void merge(Step target, Step source) {
+        target.include |= source.include;
+        target.exclude |= source.exclude;
+        target.leadsToInclude |= source.leadsToInclude;
+        for (Entry<String, Step> entry : source.named.entrySet()) {
+            merge(target.named.computeIfAbsent(entry.getKey(), k -> new Step()), entry.getValue());
+        }
+        if (source.wildcard != null) {
+            if (target.wildcard == null) target.wildcard = new Step();
+            merge(target.wildcard, source.wildcard);
+        }
+    }
+
+    /**
+     * A node of the compiled path tree.
+     */
+    static final class Step {
+        private final Map<String, Step> named = new HashMap<>();
+        private Step wildcard;
+        private boolean include;
+        private boolean exclude;
+        private boolean leadsToInclude;
+
+        /**
+         * Returns the step of a child field.
+         * @param name the JSON field name
+         * @return the child step, or null if no path continues through the field
+         */
+        Step child(String name) {
+            Step step = named.get(name);
+            return step != null ? step : wildcard;
+        }
+
+        /**
+         * Returns whether the subtree of this step is included.
+         * @return true if an include path ends at this step
+         */
+        boolean isIncluded() {
+            return include;
+        }
+
+        /**
+         * Returns whether an include path goes through or ends at this step. Steps created by exclude paths only
+         * do not lead to included content.
+         * @return true if an include path reaches this step
+         */
+        boolean leadsToInclude() {
+            return leadsToInclude;
+        }
+
+        /**
+         * Returns whether the subtree of this step is excluded.
+         * @return true if an exclude path ends at this step
+         */
+        boolean isExcluded() {
+            return exclude;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+// MIT License
+
+// Copyright (c) 2024 lila-lalab
+
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+package com.lalab.util.data;
+
+import java.util.Arrays;
+
+import org.w3c.dom.Node;
+
+/**
+ * Reusable scratch space grouping same-named sibling elements, with one level per element depth.
+ * A level is recycled once its element is converted, so converting a document allocates no grouping
+ * structures after the first documents of the same shape. Instances are confined to a single thread.
+ * Since instances live as long as their thread, levels beyond {@link #MAX_RETAINED_DEPTH} and arrays sized for more
+ * than {@link #MAX_RETAINED_CHILDREN} children are released once the conversion that needed them is done.
+ */
+final class SiblingGroups {
+    static final int MAX_RETAINED_DEPTH = 64;
+    static final int MAX_RETAINED_CHILDREN = 1024;
+    private static final int INITIAL_CAPACITY = 8;
+
+    private Level[] levels = new Level[INITIAL_CAPACITY];
+    private int depth = -1;
+    private boolean oversized;
+
+    /**
+     * Returns an empty level for the next element depth.
+     * @param childCount the number of child nodes to group
+     * @return the scratch level
+     */
+    Level enter(int childCount) {
+        depth++;
+        if (depth == levels.length) levels = Arrays.copyOf(levels, depth * 2);
+        if (levels[depth] == null) levels[depth] = new Level();
+        Level level = levels[depth];
+        level.reset(childCount);
+        if (depth >= MAX_RETAINED_DEPTH || childCount > MAX_RETAINED_CHILDREN) oversized = true;
+        return level;
+    }
+
+    /**
+     * Clears the current level and returns to the parent depth.
+     * Leaving the outermost level releases the capacity retained over the limits.
+     */
+    void exit() {
+        levels[depth].clear();
+        if (--depth < 0 && oversized) trim();
+    }
+
+    /**
+     * Drops the levels beyond the retained depth and shrinks the oversized levels to their initial capacity.
+     */
+    private void trim() {
+        if (levels.length > MAX_RETAINED_DEPTH) levels = Arrays.copyOf(levels, MAX_RETAINED_DEPTH);
+        for (int i = 0; i < levels.length; i++) {
+            if (levels[i] != null && levels[i].capacity() > MAX_RETAINED_CHILDREN) levels[i] = null;
+        }
+        oversized = false;
+    }
+
+    /**
+     * Returns the number of children the allocated levels can hold without growing.
+     * @return the total capacity of all levels
+     */
+    int retainedCapacity() {
+        int capacity = 0;
+        for (Level level : levels) {
+            if (level != null) capacity += level.capacity();
+        }
+        return capacity;
+    }
+
+    /**
+     * Sibling groups of one element, kept in the order of the first occurrence of each name.
+     * Groups are found through an open-addressed table of group indices and their nodes are chained by index.
+     */
+    static final class Level {
+        private Node[] nodes = new Node[INITIAL_CAPACITY];
+        private int[] nextNode = new int[INITIAL_CAPACITY];
+        private int nodeCount;
+
+        private String[] names = new String[INITIAL_CAPACITY];
+        private int[] firstNode = new int[INITIAL_CAPACITY];
+        private int[] lastNode = new int[INITIAL_CAPACITY];
+        private int[] groupSizes = new int[INITIAL_CAPACITY];
+        private int[] slots = new int[INITIAL_CAPACITY];
+        private int groupCount;
+
+        private int[] table = new int[INITIAL_CAPACITY * 2];
+
+        private int capacity() {
+            return nodes.length;
+        }
+
+        private void reset(int childCount) {
+            if (childCount > nodes.length) {
+                int capacity = Math.max(childCount, nodes.length * 2);
+                nodes = new Node[capacity];
+                nextNode = new int[capacity];
+                names = new String[capacity];
+                firstNode = new int[capacity];
+                lastNode = new int[capacity];
+                groupSizes = new int[capacity];
+                slots = new int[capacity];
+            }
+            if (childCount * 2 > table.length) table = new int[Integer.highestOneBit(childCount * 2 - 1) << 1];
+        }
+
+        /**
+         * Adds a child element to the group of its name.
+         * @param name the group name
+         * @param node the child element
+         */
+        void add(String name, Node node) {
+            int index = nodeCount++;
+            nodes[index] = node;
+            nextNode[index] = -1;
+
+            int mask = table.length - 1;
+            int slot = name.hashCode() & mask;
+            while (table[slot] != 0) {
+                int group = table[slot] - 1;
+                if (names[group].equals(name)) {
+                    nextNode[lastNode[group]] = index;
+                    lastNode[group] = index;
+                    groupSizes[group]++;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            int group = groupCount++;
+            table[slot] = group + 1;
+            slots[group] = slot;
+            names[group] = name;
+            firstNode[group] = index;
+            lastNode[group] = index;
+            groupSizes[group] = 1;
+        }
+
+        int groupCount() {
+            return groupCount;
+        }
+
+        String name(int group) {
+            return names[group];
+        }
+
+        int size(int group) {
+            return groupSizes[group];
+        }
+
+        /**
+         * Returns the index of the first node of a group.
+         * @param group the group index
+         * @return the node index
+         */
+        int first(int group) {
+            return firstNode[group];
+        }
+
+        /**
+         * Returns the index of the next node in the same group.
+         * @param index the node index
+         * @return the next node index, or -1 at the end of the group
+         */
+        int next(int index) {
+            return nextNode[index];
+        }
+
+        Node node(int index) {
+            return nodes[index];
+        }
+
+        private void clear() {
+            for (int group = 0; group < groupCount; group++) {
+                table[slots[group]] = 0;
+                names[group] = null;
+            }
+            Arrays.fill(nodes, 0, nodeCount, null);
+            groupCount = 0;
+            nodeCount = 0;
+        }
+    }
+}
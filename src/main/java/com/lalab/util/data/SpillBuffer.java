@@ -0,0 +1,328 @@
+// MIT License
+
+// Copyright (c) 2024 lila-lalab
+
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+package com.lalab.util.data;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An append-only byte buffer that moves its content to a temporary file once the heap budget shared with other
+ * buffers is exhausted. Written bytes can be read back and patched at any position.
+ */
+final class SpillBuffer implements Closeable {
+    private static final byte[] EMPTY = new byte[0];
+    private static final int MIN_CAPACITY = 256;
+    private static final int BLOCK_SIZE = 8192;
+
+    private final Budget budget;
+    private final Path directory;
+    private final byte[] scratch = new byte[8];
+
+    private byte[] data = EMPTY;
+    private int count;
+    private boolean spilled;
+    private FileChannel channel;
+    private long flushed;
+
+    /**
+     * Constructs an empty buffer.
+     * @param budget the heap budget shared by the buffers of a conversion
+     * @param directory the directory of the temporary file, or null for the default temporary directory
+     */
+    SpillBuffer(Budget budget, Path directory) {
+        this.budget = budget;
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the number of bytes written since the last reset.
+     * @return the buffer length
+     */
+    long length() {
+        return flushed + count;
+    }
+
+    /**
+     * Check whether the content of the buffer has been moved to the temporary file.
+     * @return true if the buffer is spilled
+     */
+    boolean isSpilled() {
+        return spilled;
+    }
+
+    /**
+     * Appends a byte.
+     * @param b the byte to append
+     * @throws IOException if the temporary file cannot be written
+     */
+    void write(int b) throws IOException {
+        if (count == data.length) ensureCapacity(1);
+        data[count++] = (byte) b;
+    }
+
+    /**
+     * Appends a range of bytes.
+     * @param b the source array
+     * @param off the start offset in the source array
+     * @param len the number of bytes to append
+     * @throws IOException if the temporary file cannot be written
+     */
+    void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == data.length) ensureCapacity(len);
+            int n = Math.min(len, data.length - count);
+            System.arraycopy(b, off, data, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Appends a long in big-endian order.
+     * @param value the value to append
+     * @throws IOException if the temporary file cannot be written
+     */
+    void writeLong(long value) throws IOException {
+        encodeLong(value);
+        write(scratch, 0, 8);
+    }
+
+    /**
+     * Overwrites a long previously written at a position.
+     * @param position the position of the long
+     * @param value the new value
+     * @throws IOException if the temporary file cannot be written
+     */
+    void putLong(long position, long value) throws IOException {
+        encodeLong(value);
+        int fileBytes = (int) Math.max(0, Math.min(8, flushed - position));
+        if (fileBytes > 0) writeFully(ByteBuffer.wrap(scratch, 0, fileBytes), position);
+        if (fileBytes < 8)
+            System.arraycopy(scratch, fileBytes, data, (int) (position + fileBytes - flushed), 8 - fileBytes);
+    }
+
+    /**
+     * Reads a long previously written at a position.
+     * @param position the position of the long
+     * @return the value
+     * @throws IOException if the temporary file cannot be read
+     */
+    long getLong(long position) throws IOException {
+        read(position, scratch, 0, 8);
+        long value = 0;
+        for (int i = 0; i < 8; i++) value = (value << 8) | (scratch[i] & 0xFF);
+        return value;
+    }
+
+    /**
+     * Reads a range of previously written bytes.
+     * @param position the position of the first byte
+     * @param b the destination array
+     * @param off the start offset in the destination array
+     * @param len the number of bytes to read
+     * @throws IOException if the temporary file cannot be read
+     */
+    void read(long position, byte[] b, int off, int len) throws IOException {
+        if (position < flushed) {
+            int fileBytes = (int) Math.min(len, flushed - position);
+            ByteBuffer target = ByteBuffer.wrap(b, off, fileBytes);
+            while (target.hasRemaining()) {
+                if (channel.read(target, position + target.position() - off) < 0) throw new EOFException();
+            }
+            position += fileBytes;
+            off += fileBytes;
+            len -= fileBytes;
+        }
+        if (len > 0) System.arraycopy(data, (int) (position - flushed), b, off, len);
+    }
+
+    /**
+     * Discards the content of the buffer. A spilled buffer returns to the heap and keeps its temporary file for reuse.
+     * @throws IOException if the temporary file cannot be truncated
+     */
+    void reset() throws IOException {
+        if (spilled) {
+            channel.truncate(0);
+            spilled = false;
+            budget.release(data.length);
+            data = EMPTY;
+        }
+        count = 0;
+        flushed = 0;
+    }
+
+    /**
+     * Releases the heap budget of the buffer and deletes its temporary file.
+     * @throws IOException if the temporary file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        budget.release(data.length);
+        data = EMPTY;
+        count = 0;
+        flushed = 0;
+        spilled = false;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Makes room for at least one more byte, growing the heap array within the budget or flushing to the temporary file.
+     * @param needed the number of bytes about to be written
+     * @throws IOException if the temporary file cannot be written
+     */
+    private void ensureCapacity(long needed) throws IOException {
+        if (spilled) {
+            flush();
+            return;
+        }
+        long required = (long) count + needed;
+        int capacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(required, Math.max(MIN_CAPACITY, (long) data.length * 2)));
+        if (capacity > data.length && budget.reserve(capacity - data.length)) {
+            byte[] grown = new byte[capacity];
+            System.arraycopy(data, 0, grown, 0, count);
+            data = grown;
+        } else {
+            spill();
+        }
+    }
+
+    /**
+     * Moves the content of the buffer to the temporary file and continues with a small block for pending writes.
+     * The block is charged to the budget even when that exceeds the limit, so the heap in use stays accounted for.
+     * @throws IOException if the temporary file cannot be created or written
+     */
+    private void spill() throws IOException {
+        if (channel == null) {
+            Path file = directory == null
+                    ? Files.createTempFile("x2j", ".spill")
+                    : Files.createTempFile(directory, "x2j", ".spill");
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+        }
+        flush();
+        budget.release(data.length);
+        data = new byte[budget.blockSize()];
+        budget.charge(data.length);
+        spilled = true;
+    }
+
+    /**
+     * Writes the pending bytes to the temporary file.
+     * @throws IOException if the temporary file cannot be written
+     */
+    private void flush() throws IOException {
+        writeFully(ByteBuffer.wrap(data, 0, count), flushed);
+        flushed += count;
+        count = 0;
+    }
+
+    /**
+     * Writes a byte buffer to the temporary file at a position.
+     * @param source the bytes to write
+     * @param position the file position
+     * @throws IOException if the temporary file cannot be written
+     */
+    private void writeFully(ByteBuffer source, long position) throws IOException {
+        while (source.hasRemaining()) position += channel.write(source, position);
+    }
+
+    /**
+     * Encodes a long in big-endian order into the scratch array.
+     * @param value the value to encode
+     */
+    private void encodeLong(long value) {
+        for (int i = 7; i >= 0; i--) {
+            scratch[i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    /**
+     * A heap budget in bytes shared by the buffers of a conversion.
+     */
+    static final class Budget {
+        private final long limit;
+        private long used;
+
+        /**
+         * Constructs a budget.
+         * @param limit the number of heap bytes the buffers may hold together
+         */
+        Budget(long limit) {
+            this.limit = limit;
+        }
+
+        /**
+         * Reserves heap bytes if the budget allows it.
+         * @param bytes the number of bytes to reserve
+         * @return true if the bytes were reserved
+         */
+        boolean reserve(long bytes) {
+            if (used + bytes > limit) return false;
+            used += bytes;
+            return true;
+        }
+
+        /**
+         * Charges heap bytes to the budget whether or not it allows it.
+         * @param bytes the number of bytes to charge
+         */
+        void charge(long bytes) {
+            used += bytes;
+        }
+
+        /**
+         * Returns the heap bytes in use.
+         * @return the reserved and charged bytes
+         */
+        long used() {
+            return used;
+        }
+
+        /**
+         * Returns the size of the block a spilled buffer keeps for pending writes, at most the limit unless the limit
+         * is below the minimum buffer capacity.
+         * @return the block size in bytes
+         */
+        int blockSize() {
+            return (int) Math.max(MIN_CAPACITY, Math.min(BLOCK_SIZE, limit));
+        }
+
+        /**
+         * Returns previously reserved heap bytes to the budget.
+         * @param bytes the number of bytes to release
+         */
+        void release(long bytes) {
+            used -= bytes;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+// MIT License
+
+// Copyright (c) 2024 lila-lalab
+
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+package com.lalab.util.data;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.Base64Variant;
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.NumberInput;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.node.JsonNodeType;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.fasterxml.jackson.databind.node.ValueNode;
+
+/**
+ * A JSON string node backed by a {@link CharSlice} of the XML source.
+ * It behaves like a {@link TextNode}, but is written to a generator from the shared characters and only creates
+ * a String when its text is requested. It is not equal to a TextNode holding the same text.
+ */
+public final class TextSliceNode extends ValueNode {
+    private static final long serialVersionUID = 1L;
+
+    private final CharSlice slice;
+
+    /**
+     * Constructs a node over a slice.
+     * @param slice the characters of the node
+     */
+    TextSliceNode(CharSlice slice) {
+        this.slice = slice;
+    }
+
+    /**
+     * Returns the characters of the node without copying them.
+     * @return the character slice
+     */
+    public CharSequence charSequence() {
+        return slice;
+    }
+
+    @Override
+    public JsonNodeType getNodeType() {
+        return JsonNodeType.STRING;
+    }
+
+    @Override
+    public JsonToken asToken() {
+        return JsonToken.VALUE_STRING;
+    }
+
+    @Override
+    public String textValue() {
+        return slice.toString();
+    }
+
+    @Override
+    public String asText() {
+        return slice.toString();
+    }
+
+    @Override
+    public String asText(String defaultValue) {
+        return slice.toString();
+    }
+
+    @Override
+    public byte[] binaryValue() throws IOException {
+        return getBinaryValue(Base64Variants.getDefaultVariant());
+    }
+
+    /**
+     * Decodes the base64 text of the node.
+     * @param variant the base64 variant to decode with
+     * @return the decoded bytes
+     * @throws IOException if the text is not valid base64
+     */
+    public byte[] getBinaryValue(Base64Variant variant) throws IOException {
+        return TextNode.valueOf(slice.toString()).getBinaryValue(variant);
+    }
+
+    @Override
+    public boolean asBoolean(boolean defaultValue) {
+        String value = slice.toString().trim();
+        if ("true".equals(value)) return true;
+        if ("false".equals(value)) return false;
+        return defaultValue;
+    }
+
+    @Override
+    public int asInt(int defaultValue) {
+        return NumberInput.parseAsInt(slice.toString(), defaultValue);
+    }
+
+    @Override
+    public long asLong(long defaultValue) {
+        return NumberInput.parseAsLong(slice.toString(), defaultValue);
+    }
+
+    @Override
+    public double asDouble(double defaultValue) {
+        return NumberInput.parseAsDouble(slice.toString(), defaultValue);
+    }
+
+    @Override
+    public void serialize(JsonGenerator generator, SerializerProvider provider) throws IOException {
+        slice.writeTo(generator);
+    }
+
+    /**
+     * Check whether another node is a TextSliceNode with the same text, comparing slices without creating strings.
+     * A slice node is never equal to a {@link TextNode}, since TextNode only equals its own class and equality must
+     * stay symmetric; compare {@link #asText()} values to match nodes of both kinds.
+     * @param o the object to compare with
+     * @return true if the other node is a slice node holding the same text
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) return true;
+        return o instanceof TextSliceNode && slice.contentEquals(((TextSliceNode) o).slice);
+    }
+
+    @Override
+    public int hashCode() {
+        return slice.hashCode();
+    }
+}
@@ -22,21 +22,34 @@
 package com.lalab.util.data;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Writer;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonPointer;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -48,9 +61,21 @@ import com.fasterxml.jackson.databind.node.TextNode;
  * A converter class to convert XML data to JSON format.
  */
 public class X2JConverter {
-    private X2JConverterConfig config;
+    X2JConverterConfig config;
     private ObjectMapper objectMapper;
-    private String trimPattern;
+    private int trimMode;
+    private PathProjection projection;
+    private FieldRules fieldRules;
+    private NamespaceTable namespaces;
+    private XMLInputFactory xmlInputFactory;
+    private final ConversionCache.ConfigFingerprint configFingerprint;
+    private final Map<String, Map<String, String>> attributeNames = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, String>> mappedAttributeNames = new ConcurrentHashMap<>();
+
+    private static final int MAX_CACHED_NAMES = 4096;
+    private static final String REPORT_CDATA_EVENT = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+    private static final ThreadLocal<SiblingGroups> SIBLING_GROUPS = ThreadLocal.withInitial(SiblingGroups::new);
 
     /**
      * Constructs an X2JConverter with the specified configuration.
@@ -61,18 +86,31 @@ public class X2JConverter {
         this.config = config;
         this.objectMapper = new ObjectMapper();
         
-        if (config.trimNewLine && config.trimWhitespace)
-            this.trimPattern = REGEX_NEWLINEANDSPACE;
-        else if (config.trimNewLine) 
-            this.trimPattern = REGEX_NEWLINEONLY;
-        else if (config.trimWhitespace) 
-            this.trimPattern = REGEX_SPACEONLY;
+        if (config.trimWhitespace)
+            this.trimMode = TRIM_WHITESPACE;
+        else if (config.trimNewLine)
+            this.trimMode = TRIM_NEWLINE;
         else
-            this.trimPattern = null;
+            this.trimMode = TRIM_NONE;
+
+        this.projection = PathProjection.compile(config.includePaths, config.excludePaths);
+        this.fieldRules = FieldRules.compile(config.renameFields, config.dropFields, config.flattenFields);
+        this.namespaces = NamespaceTable.compile(config.namespacePrefixes);
+        this.xmlInputFactory = XMLInputFactory.newInstance();
+        this.xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        this.xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        // the JDK parser reports CDATA sections as character events by default, which merges them into the
+        // surrounding text, while the DOM keeps them as separate children whose last one gives the value
+        if (this.xmlInputFactory.isPropertySupported(REPORT_CDATA_EVENT))
+            this.xmlInputFactory.setProperty(REPORT_CDATA_EVENT, true);
+        this.configFingerprint = new ConversionCache.ConfigFingerprint(config, "trimWhitespace", "trimNewLine",
+                "includePaths", "excludePaths", "renameFields", "dropFields", "flattenFields", "namespacePrefixes");
     }
 
     /**
      * Converts an XML Document to a JSON node.
+     * If {@link X2JConverterConfig#lazyConversion} is set, the returned node is a view backed by the document
+     * and its elements are converted when they are first accessed.
      *
      * @param doc the XML Document to convert
      * @return the JSON node representing the XML data
@@ -89,6 +127,9 @@ public class X2JConverter {
                         root.removeChild(comp);
                     }
                 }
+            } else if (doc.getDocumentElement().getNamespaceURI() != null) {
+                Element envelope = doc.getDocumentElement();
+                root = envelope.getElementsByTagNameNS(envelope.getNamespaceURI(), "Body").item(0);
             } else {
                 NamedNodeMap attributes = doc.getDocumentElement().getAttributes();
                 String namespaceAlias = "";
@@ -107,7 +148,58 @@ public class X2JConverter {
             else root = doc.getDocumentElement();
         }
         
-        return handleNumberFields(handleBooleanFields(handleArrFields(convertToJsonNode(root))));
+        JsonNode json = config.lazyConversion
+                ? convertToLazyJsonNode(root, rootStep(), projection.includeAll())
+                : convertToJsonNode(root, rootStep(), projection.includeAll());
+        return handleNumberFields(handleBooleanFields(handleArrFields(json)));
+    }
+
+    /**
+     * Converts an XML stream to a JSON node without building a DOM.
+     * Subtrees excluded by the path projection are skipped by the parser without reading their content.
+     *
+     * @param in the XML input stream to convert
+     * @return the JSON node representing the XML data
+     * @throws XMLStreamException if the XML input is malformed
+     */
+    public JsonNode x2J(InputStream in) throws XMLStreamException {
+        XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(in);
+        try {
+            return x2J(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Converts the XML document read by a stream reader to a JSON node without building a DOM.
+     * The reader must be positioned at the start of the document. Readers created by the converter report CDATA
+     * sections separately, as the DOM does; a reader that merges them into the surrounding text, such as a
+     * coalescing one, gives the whole merged text where x2J(Document) gives the last text child.
+     *
+     * @param reader the XML stream reader to convert from
+     * @return the JSON node representing the XML data
+     * @throws XMLStreamException if the XML input is malformed
+     */
+    public JsonNode x2J(XMLStreamReader reader) throws XMLStreamException {
+        JsonNode json = null;
+        if (config.tearSOAPEnvelope) {
+            moveToStartElement(reader);
+            if (config.includeRoot) {
+                json = convertStreamNode(reader, true, false, rootStep(), projection.includeAll());
+            } else {
+                while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                    if (json == null && reader.getLocalName().equals("Body"))
+                        json = convertStreamNode(reader, false, false, rootStep(), projection.includeAll());
+                    else
+                        skipElement(reader);
+                }
+            }
+        } else {
+            if (!config.includeRoot) moveToStartElement(reader);
+            json = convertStreamNode(reader, false, false, rootStep(), projection.includeAll());
+        }
+        return handleNumberFields(handleBooleanFields(handleArrFields(json)));
     }
 
     /**
@@ -121,6 +213,81 @@ public class X2JConverter {
         objectMapper.writeTree(objectMapper.createGenerator(writer), x2J(doc));
     }
 
+    /**
+     * Writes the JSON representation of an XML Document to a JSON generator of any format.
+     *
+     * @param doc the XML Document to convert
+     * @param generator the generator to write the JSON data to
+     * @throws IOException if an I/O error occurs
+     */
+    public void writex2J(Document doc, JsonGenerator generator) throws IOException {
+        objectMapper.writeTree(generator, x2J(doc));
+    }
+
+    /**
+     * Writes the JSON representation of an XML stream to a JSON generator of any format.
+     * Unless array, number or boolean fields are configured, no JSON tree is built and the pending children of open
+     * elements are moved to temporary files once {@link X2JConverterConfig#spillThreshold} heap bytes are in use.
+     *
+     * @param in the XML input stream to convert
+     * @param generator the generator to write the JSON data to
+     * @throws IOException if an I/O error occurs
+     * @throws XMLStreamException if the XML input is malformed
+     */
+    public void writex2J(InputStream in, JsonGenerator generator) throws IOException, XMLStreamException {
+        XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(in);
+        try {
+            writex2J(reader, generator);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Writes the JSON representation of the XML document read by a stream reader to a JSON generator of any format.
+     * The reader must be positioned at the start of the document.
+     *
+     * @param reader the XML stream reader to convert from
+     * @param generator the generator to write the JSON data to
+     * @throws IOException if an I/O error occurs
+     * @throws XMLStreamException if the XML input is malformed
+     */
+    public void writex2J(XMLStreamReader reader, JsonGenerator generator) throws IOException, XMLStreamException {
+        if (!config.xmlArrayFields.isEmpty() || !config.xmlNumberFields.isEmpty() || !config.xmlBooleanFields.isEmpty()) {
+            objectMapper.writeTree(generator, x2J(reader));
+            return;
+        }
+        try (X2JStreamWriter streamWriter = new X2JStreamWriter(this)) {
+            streamWriter.write(reader, generator);
+        }
+    }
+
+    /**
+     * Writes the JSON representation of an XML Document to an output stream in the specified format.
+     * The generator is created and closed by this method, so the encoded data is complete when it returns.
+     * The output stream belongs to the caller; it is flushed but not closed.
+     *
+     * @param doc the XML Document to convert
+     * @param out the output stream to write the encoded data to
+     * @param format the output format
+     * @throws IOException if an I/O error occurs
+     */
+    public void writex2J(Document doc, OutputStream out, JsonFormat format) throws IOException {
+        try (JsonGenerator generator = format.factory().createGenerator(out).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+            writex2J(doc, generator);
+        }
+    }
+
+    /**
+     * Returns the fingerprint of the configuration keying the cached results of this converter. The fields compiled
+     * in the constructor are fingerprinted as they were then, the others as they are now.
+     *
+     * @return the configuration fingerprint
+     */
+    String configFingerprint() {
+        return configFingerprint.get();
+    }
+
     /**
      * Trims the namespace alias from an XML node name.
      *
@@ -129,86 +296,709 @@ public class X2JConverter {
      */
     public String trimNodeName(String xmlNodeName) {
         if (config.removeNamespaceAlias) {
-            String[] namespaceSplitted = xmlNodeName.split(":");
-            if (namespaceSplitted.length > 1) return xmlNodeName.substring(namespaceSplitted[0].length() + 1);
+            int separator = xmlNodeName.indexOf(':');
+            if (separator >= 0 && separator < xmlNodeName.length() - 1) return xmlNodeName.substring(separator + 1);
         }
         return xmlNodeName;
     }
 
+    /**
+     * Returns the JSON field name of a DOM element or attribute before renaming.
+     * Nodes of a namespace-aware DOM are named from their namespace URI and local name without splitting the node name.
+     *
+     * @param node the element or attribute
+     * @return the field name, without the attribute prefix
+     */
+    private String nodeFieldName(Node node) {
+        return nodeName(node.getNamespaceURI(), node.getLocalName(), node.getNodeName());
+    }
+
+    /**
+     * Returns the JSON field name of the current element of a stream reader before renaming.
+     *
+     * @param reader the XML stream reader positioned at a start element
+     * @return the field name
+     */
+    String elementName(XMLStreamReader reader) {
+        String localName = reader.getLocalName();
+        String uri = reader.getNamespaceURI();
+        if (!namespaces.isNone() && uri != null && !uri.isEmpty()) {
+            String fieldName = namespaces.fieldName(uri, localName);
+            if (fieldName != null) return fieldName;
+        }
+        return config.removeNamespaceAlias ? localName : qualifiedName(reader);
+    }
+
+    /**
+     * Returns the JSON field name of a node from its namespace URI and local name, falling back to trimming the
+     * qualified name when the node has no namespace information.
+     *
+     * @param uri the namespace URI, or null
+     * @param localName the local name, or null if the node was not created namespace-aware
+     * @param qualifiedName the node name including its namespace alias
+     * @return the field name
+     */
+    private String nodeName(String uri, String localName, String qualifiedName) {
+        if (localName == null) return trimNodeName(qualifiedName);
+        if (!namespaces.isNone() && uri != null && !uri.isEmpty()) {
+            String fieldName = namespaces.fieldName(uri, localName);
+            if (fieldName != null) return fieldName;
+        }
+        return config.removeNamespaceAlias ? localName : qualifiedName;
+    }
+
+    /**
+     * Check whether an attribute belongs to the XML Schema namespace, by URI if known and by its "xsd:" prefix otherwise.
+     *
+     * @param uri the namespace URI of the attribute, or null
+     * @param qualifiedName the attribute name including its namespace alias
+     * @return true if the attribute is an XML Schema attribute
+     */
+    private static boolean isXsdAttribute(String uri, String qualifiedName) {
+        if (uri != null && !uri.isEmpty()) return XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(uri);
+        return qualifiedName.startsWith("xsd:");
+    }
+
+    /**
+     * Returns the rename, drop and flatten rule of a field.
+     * @param fieldName the field name before renaming
+     * @return the rule, or null if the field is left unchanged
+     */
+    FieldRules.Rule fieldRule(String fieldName) {
+        return fieldRules.isNone() ? null : fieldRules.get(fieldName);
+    }
+
+    /**
+     * Applies the rename and drop rules to a field name.
+     * @param fieldName the field name before renaming
+     * @return the field name to use in the JSON output, or null if the field is dropped
+     */
+    private String renameField(String fieldName) {
+        FieldRules.Rule rule = fieldRule(fieldName);
+        if (rule == null) return fieldName;
+        return rule.drop ? null : rule.name;
+    }
+
+    /**
+     * Returns the projection step of the JSON root.
+     * @return the root step, or null if no projection is configured
+     */
+    PathProjection.Step rootStep() {
+        return projection.isNone() ? null : projection.root();
+    }
+
+    /**
+     * Returns the projection step of a child field.
+     * @param step the projection step of the parent node
+     * @param fieldName the JSON field name of the child
+     * @return the child step, or null if no path continues through the field
+     */
+    static PathProjection.Step childStep(PathProjection.Step step, String fieldName) {
+        return step == null ? null : step.child(fieldName);
+    }
+
+    /**
+     * Check whether a child field is kept by the projection.
+     * Leaf fields are kept only when included, while element fields are also kept when they lead to an included path.
+     * Such elements keep only the fields on the included paths and are dropped when none of them is present.
+     * @param step the projection step of the child
+     * @param included whether the whole subtree of the parent node is included
+     * @param leaf whether the child is an attribute or value field
+     * @return true if the field is converted
+     */
+    static boolean isProjected(PathProjection.Step step, boolean included, boolean leaf) {
+        if (step != null && step.isExcluded()) return false;
+        if (isIncluded(step, included)) return true;
+        return !leaf && step != null && step.leadsToInclude();
+    }
+
+    /**
+     * Check whether the whole subtree of a child field is included by the projection.
+     * @param step the projection step of the child
+     * @param included whether the whole subtree of the parent node is included
+     * @return true if the subtree is included
+     */
+    static boolean isIncluded(PathProjection.Step step, boolean included) {
+        return included || (step != null && step.isIncluded());
+    }
+
+    /**
+     * Converts the current element, or the whole document, of a stream reader to a JSON node.
+     * Leaves the reader at the matching end element or at the end of the document.
+     *
+     * @param reader the XML stream reader positioned at a start element or at the start of the document
+     * @param envelope whether only the SOAP body child elements are converted
+     * @param flatten whether the element converts to its text value unless it has child elements
+     * @param step the projection step of the node, or null if no path continues below it
+     * @param included whether the whole subtree of the node is included by the projection
+     * @return the JSON node representing the XML data
+     * @throws XMLStreamException if the XML input is malformed
+     */
+    private JsonNode convertStreamNode(XMLStreamReader reader, boolean envelope, boolean flatten, PathProjection.Step step, boolean included) throws XMLStreamException {
+        Map<String, JsonNode> fields = null;
+        boolean hasContent = false;
+        boolean hasElements = false;
+        if (reader.getEventType() == XMLStreamConstants.START_ELEMENT && !config.ignoreXmlAttribute
+                && reader.getAttributeCount() + reader.getNamespaceCount() > 0) {
+            Map<String, JsonNode> attributes = new LinkedHashMap<>();
+            hasContent = readStreamAttributes(reader, (name, value) -> attributes.put(name, textNode(value)), step, included);
+            fields = attributes;
+        }
+
+        String value = null;
+        StringBuilder textRun = null;
+        boolean inTextRun = false;
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE) {
+                if (!inTextRun) {
+                    value = reader.getText();
+                    textRun = null;
+                    inTextRun = true;
+                } else {
+                    if (textRun == null) textRun = new StringBuilder(value);
+                    textRun.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                }
+                continue;
+            }
+            if (textRun != null) {
+                value = textRun.toString();
+                textRun = null;
+            }
+            inTextRun = false;
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    if (envelope && !qualifiedName(reader).endsWith("Body")) {
+                        skipElement(reader);
+                        break;
+                    }
+                    hasContent = true;
+                    hasElements = true;
+                    String nodeName = elementName(reader);
+                    FieldRules.Rule rule = fieldRule(nodeName);
+                    if (rule != null) {
+                        if (rule.drop) {
+                            skipElement(reader);
+                            break;
+                        }
+                        nodeName = rule.name;
+                    }
+                    PathProjection.Step childStep = childStep(step, nodeName);
+                    if (!isProjected(childStep, included, false)) {
+                        skipElement(reader);
+                        break;
+                    }
+                    boolean childIncluded = isIncluded(childStep, included);
+                    JsonNode child = convertStreamNode(reader, false, rule != null && rule.flatten, childStep, childIncluded);
+                    if (!childIncluded && child.size() == 0) break;
+                    if (fields == null) fields = new LinkedHashMap<>();
+                    JsonNode existing = fields.get(nodeName);
+                    if (existing == null) {
+                        fields.put(nodeName, child);
+                    } else if (existing instanceof ArrayNode) {
+                        ((ArrayNode) existing).add(child);
+                    } else {
+                        fields.put(nodeName, objectMapper.createArrayNode().add(existing).add(child));
+                    }
+                    break;
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.COMMENT:
+                    if (!envelope) value = reader.getText();
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    if (!envelope) value = reader.getPIData();
+                    break;
+                case XMLStreamConstants.DTD:
+                    value = null;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                case XMLStreamConstants.END_DOCUMENT:
+                    if (envelope) value = null;
+                    if (included && (!hasContent || (flatten && !hasElements))) {
+                        if (value == null) value = config.nullAsEmptyString ? "" : null;
+                        return textNode(trimText(value));
+                    }
+                    if (fields == null) fields = new LinkedHashMap<>();
+                    if (value != null) {
+                        CharSequence trimmed = trimText(value);
+                        if (trimmed.length() > 0 && isProjected(childStep(step, config.xmlValueFieldName), included, true))
+                            fields.put(config.xmlValueFieldName, textNode(trimmed));
+                    }
+                    return new ObjectNode(objectMapper.getNodeFactory(), fields);
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Reads the attributes and namespace declarations of the current element in the order a DOM would list them.
+     * Declarations of namespaces in the prefix table are left out. Names are compared and resolved from their prefix
+     * and local name, without building qualified names.
+     *
+     * @param reader the XML stream reader positioned at a start element
+     * @param attributes the consumer receiving the field names and trimmed values of the projected attributes,
+     *                   as CharSlices in text slice mode and as strings otherwise
+     * @param step the projection step of the element, or null if no path continues below it
+     * @param included whether the whole subtree of the element is included by the projection
+     * @return true if the element has an attribute retained by the configuration
+     */
+    boolean readStreamAttributes(XMLStreamReader reader, AttributeConsumer attributes, PathProjection.Step step, boolean included) {
+        int namespaceCount = reader.getNamespaceCount();
+        int count = namespaceCount + reader.getAttributeCount();
+        if (count == 0) return false;
+        String[] prefixes = new String[count];
+        String[] localNames = new String[count];
+        int[] order = new int[count];
+        int retained = 0;
+        for (int i = 0; i < count; i++) {
+            if (i < namespaceCount) {
+                String prefix = reader.getNamespacePrefix(i);
+                if (isMappedDeclaration(reader.getNamespaceURI(i))) continue;
+                // "xmlns" or "xmlns:prefix", as the DOM names the declaration
+                boolean defaultNamespace = prefix == null || prefix.isEmpty();
+                prefixes[i] = defaultNamespace ? "" : XMLConstants.XMLNS_ATTRIBUTE;
+                localNames[i] = defaultNamespace ? XMLConstants.XMLNS_ATTRIBUTE : prefix;
+            } else {
+                String prefix = reader.getAttributePrefix(i - namespaceCount);
+                prefixes[i] = prefix == null ? "" : prefix;
+                localNames[i] = reader.getAttributeLocalName(i - namespaceCount);
+                if (config.ignoreXsdTypeAttr && XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(reader.getAttributeNamespace(i - namespaceCount)))
+                    continue;
+            }
+            int j = retained++;
+            for (; j > 0 && compareQualifiedNames(prefixes[order[j - 1]], localNames[order[j - 1]], prefixes[i], localNames[i]) > 0; j--)
+                order[j] = order[j - 1];
+            order[j] = i;
+        }
+        boolean kept = false;
+        for (int k = 0; k < retained; k++) {
+            int i = order[k];
+            String uri = i < namespaceCount ? null : reader.getAttributeNamespace(i - namespaceCount);
+            String fieldName = renameField(attributeFieldName(uri, prefixes[i], localNames[i]));
+            if (fieldName == null) continue; // dropped by a field rule
+            kept = true;
+            if (isProjected(childStep(step, fieldName), included, true)) {
+                String value = i < namespaceCount ? reader.getNamespaceURI(i) : reader.getAttributeValue(i - namespaceCount);
+                if (value == null) value = ""; // undeclared default namespace
+                attributes.accept(fieldName, trimText(value));
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Returns the JSON field name of a streamed attribute before renaming, cached by namespace and local name.
+     *
+     * @param uri the namespace URI of the attribute, or null
+     * @param prefix the prefix of the attribute, or an empty string
+     * @param localName the local name of the attribute
+     * @return the field name including the attribute prefix
+     */
+    private String attributeFieldName(String uri, String prefix, String localName) {
+        boolean mapped = !namespaces.isNone() && namespaces.contains(uri);
+        Map<String, Map<String, String>> cache = mapped ? mappedAttributeNames : attributeNames;
+        String key = mapped ? uri : config.removeNamespaceAlias ? "" : prefix;
+        Map<String, String> names = cache.get(key);
+        if (names == null) {
+            names = new ConcurrentHashMap<>();
+            if (cache.size() < MAX_CACHED_NAMES) cache.put(key, names);
+        }
+        String name = names.get(localName);
+        if (name == null) {
+            name = config.xmlAttributePrefix + (mapped ? namespaces.fieldName(uri, localName) : key.isEmpty() ? localName : key + ":" + localName);
+            if (names.size() < MAX_CACHED_NAMES) names.put(localName, name);
+        }
+        return name;
+    }
+
+    /**
+     * Compares two qualified names given by prefix and local name as {@link String#compareTo(String)} compares
+     * "prefix:localName", or the local name alone for an empty prefix.
+     *
+     * @param prefix1 the prefix of the first name, or an empty string
+     * @param localName1 the local name of the first name
+     * @param prefix2 the prefix of the second name, or an empty string
+     * @param localName2 the local name of the second name
+     * @return a negative, zero or positive value as the first name sorts before, equal to or after the second
+     */
+    static int compareQualifiedNames(String prefix1, String localName1, String prefix2, String localName2) {
+        int length1 = prefix1.isEmpty() ? localName1.length() : prefix1.length() + 1 + localName1.length();
+        int length2 = prefix2.isEmpty() ? localName2.length() : prefix2.length() + 1 + localName2.length();
+        int length = Math.min(length1, length2);
+        for (int i = 0; i < length; i++) {
+            char c1 = qualifiedNameChar(prefix1, localName1, i);
+            char c2 = qualifiedNameChar(prefix2, localName2, i);
+            if (c1 != c2) return c1 - c2;
+        }
+        return length1 - length2;
+    }
+
+    private static char qualifiedNameChar(String prefix, String localName, int index) {
+        if (prefix.isEmpty()) return localName.charAt(index);
+        if (index < prefix.length()) return prefix.charAt(index);
+        return index == prefix.length() ? ':' : localName.charAt(index - prefix.length() - 1);
+    }
+
+    /**
+     * Check whether a namespace declaration declares a namespace of the prefix table. Such declarations are left out
+     * of the JSON output, since the names in the namespace carry the table prefix whatever alias the document declares.
+     *
+     * @param uri the declared namespace URI
+     * @return true if the URI is in the prefix table
+     */
+    private boolean isMappedDeclaration(String uri) {
+        return !namespaces.isNone() && namespaces.contains(uri);
+    }
+
+    /**
+     * Check whether a DOM attribute is retained by the configuration, i.e. it is neither an ignored XML Schema
+     * attribute, a declaration of a namespace in the prefix table nor a field dropped by a field rule.
+     *
+     * @param attribute the attribute node
+     * @return true if the attribute is converted
+     */
+    private boolean isRetainedAttribute(Node attribute) {
+        String uri = attribute.getNamespaceURI();
+        if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(uri) && isMappedDeclaration(attribute.getNodeValue())) return false;
+        if (config.ignoreXsdTypeAttr && isXsdAttribute(uri, attribute.getNodeName())) return false;
+        return fieldRules.isNone() || renameField(config.xmlAttributePrefix + nodeFieldName(attribute)) != null;
+    }
+
+    /**
+     * Receives the converted attributes of a streamed element.
+     */
+    interface AttributeConsumer {
+        void accept(String fieldName, CharSequence value);
+    }
+
+    /**
+     * Returns the qualified name of the current element of a stream reader.
+     * @param reader the XML stream reader positioned at a start element
+     * @return the element name including its namespace prefix
+     */
+    static String qualifiedName(XMLStreamReader reader) {
+        String prefix = reader.getPrefix();
+        if (prefix == null || prefix.isEmpty()) return reader.getLocalName();
+        return prefix + ":" + reader.getLocalName();
+    }
+
+    /**
+     * Advances a stream reader to the next start element unless it is already positioned at one.
+     * @param reader the XML stream reader
+     * @throws XMLStreamException if the XML input is malformed
+     */
+    static void moveToStartElement(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.getEventType() != XMLStreamConstants.START_ELEMENT) reader.next();
+    }
+
+    /**
+     * Skips the current element of a stream reader including its whole subtree, without reading any text.
+     * @param reader the XML stream reader positioned at a start element
+     * @throws XMLStreamException if the XML input is malformed
+     */
+    static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) depth++;
+            else if (event == XMLStreamConstants.END_ELEMENT) depth--;
+        }
+    }
+
     /**
      * Converts an XML node to a JSON node.
      *
      * @param xml the XML node to convert
+     * @param step the projection step of the node, or null if no path continues below it
+     * @param included whether the whole subtree of the node is included by the projection
+     * @return the JSON node representing the XML data
+     */
+    private JsonNode convertToJsonNode(Node xml, PathProjection.Step step, boolean included) {
+        if (included && isLeafNode(xml)) return convertLeafNode(xml);
+        Map<String, JsonNode> fields = new LinkedHashMap<>();
+        populateFields(xml, fields, false, step, included);
+        return new ObjectNode(objectMapper.getNodeFactory(), fields);
+    }
+
+    /**
+     * Converts an XML node to a JSON node whose fields are only converted when first accessed.
+     * Leaf nodes are converted right away since their conversion is as cheap as deferring it. Nodes that only lead to
+     * included paths are converted right away as well, with lazy children, since they are dropped when empty.
+     *
+     * @param xml the XML node to convert
+     * @param step the projection step of the node, or null if no path continues below it
+     * @param included whether the whole subtree of the node is included by the projection
+     * @return the JSON node view over the XML data
+     */
+    private JsonNode convertToLazyJsonNode(Node xml, PathProjection.Step step, boolean included) {
+        if (included && isLeafNode(xml)) return convertLeafNode(xml);
+        if (!included) {
+            Map<String, JsonNode> fields = new LinkedHashMap<>();
+            populateFields(xml, fields, true, step, false);
+            return new ObjectNode(objectMapper.getNodeFactory(), fields);
+        }
+        return new ObjectNode(objectMapper.getNodeFactory(), new LazyFieldMap(xml, step, included));
+    }
+
+    /**
+     * Check whether the XML node converts to a text node, i.e. it has neither child elements nor retained attributes.
+     * @param xml the XML node to check
+     * @return true if the node has no child elements and no retained attributes
+     */
+    private boolean isLeafNode(Node xml) {
+        if (hasChildElements(xml)) return false;
+        NamedNodeMap attributes = xml.getAttributes();
+        if (!config.ignoreXmlAttribute && attributes != null) {
+            for (int i = 0; i < attributes.getLength(); i++) {
+                Node attribute = attributes.item(i);
+                if (isRetainedAttribute(attribute)) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check whether the XML node has child elements.
+     * @param xml the XML node to check
+     * @return true if any child of the node is an element
+     */
+    private boolean hasChildElements(Node xml) {
+        NodeList children = xml.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            if (children.item(i) instanceof Element) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Converts a child element to a JSON node, flattening it to its text value if a flatten rule applies.
+     *
+     * @param xml the XML element to convert
+     * @param lazy whether the element is converted lazily
+     * @param step the projection step of the element, or null if no path continues below it
+     * @param included whether the whole subtree of the element is included by the projection
      * @return the JSON node representing the XML data
      */
-    private JsonNode convertToJsonNode(Node xml) {
+    private JsonNode convertElement(Node xml, boolean lazy, PathProjection.Step step, boolean included) {
+        if (included && !fieldRules.isNone() && fieldRules.isFlattened(nodeFieldName(xml)) && !hasChildElements(xml))
+            return convertLeafNode(xml);
+        return lazy ? convertToLazyJsonNode(xml, step, included) : convertToJsonNode(xml, step, included);
+    }
+
+    /**
+     * Converts an XML node without child elements and retained attributes to a text node.
+     * @param xml the XML node to convert
+     * @return the text node holding the node value
+     */
+    private JsonNode convertLeafNode(Node xml) {
+        NodeList children = xml.getChildNodes();
+        String value = null;
+        for (int i = 0; i < children.getLength(); i++) {
+            value = children.item(i).getNodeValue();
+        }
+        if (value == null) value = config.nullAsEmptyString ? "" : null;
+        return textNode(trimText(value));
+    }
+
+    /**
+     * Converts the attributes, child elements and value of an XML node into JSON object fields.
+     *
+     * @param xml the XML node to convert
+     * @param fields the map receiving the converted fields
+     * @param lazy whether child elements are converted lazily
+     * @param step the projection step of the node, or null if no path continues below it
+     * @param included whether the whole subtree of the node is included by the projection
+     */
+    private void populateFields(Node xml, Map<String, JsonNode> fields, boolean lazy, PathProjection.Step step, boolean included) {
         NodeList children = xml.getChildNodes();
         NamedNodeMap attributes = xml.getAttributes();
-        Map<String, String> attrMap = new LinkedHashMap<>();
-        if (!config.ignoreXmlAttribute && attributes.getLength() > 0) {
+        if (!config.ignoreXmlAttribute && attributes != null && attributes.getLength() > 0) {
             for (int i = 0; i < attributes.getLength(); i++) {
                 Node attribute = attributes.item(i);
-                String nodeName = attribute.getNodeName();
-                if (!config.ignoreXsdTypeAttr || !nodeName.startsWith("xsd:"))
-                    attrMap.put(trimNodeName(nodeName), trimStrValue(attribute.getNodeValue()));
+                if (isRetainedAttribute(attribute)) {
+                    String fieldName = renameField(config.xmlAttributePrefix + nodeFieldName(attribute));
+                    if (fieldName != null && isProjected(childStep(step, fieldName), included, true))
+                        fields.put(fieldName, textNode(trimText(attribute.getNodeValue())));
+                }
             }
         }
         String value = null;
-        Map<String, List<Node>> elements = new LinkedHashMap<>();
-        if (children.getLength() >= 1) {
+        SiblingGroups siblingGroups = SIBLING_GROUPS.get();
+        SiblingGroups.Level elements = siblingGroups.enter(children.getLength());
+        try {
             for (int i = 0; i < children.getLength(); i++) {
                 Node child = children.item(i);
                 if (!(child instanceof Element)) {
-                    value = trimStrValue(child.getNodeValue());
+                    value = child.getNodeValue();
                     continue;
                 }
-                String nodeName = trimNodeName(child.getNodeName());
-                elements.computeIfAbsent(nodeName, k -> new ArrayList<>()).add(child);
+                String nodeName = renameField(nodeFieldName(child));
+                if (nodeName != null && isProjected(childStep(step, nodeName), included, false))
+                    elements.add(nodeName, child);
             }
-        }
-        if (!elements.isEmpty() || !attrMap.isEmpty()) {
-            ObjectNode node = objectMapper.createObjectNode();
-            for (Entry<String, String> attr : attrMap.entrySet()) {
-                node.put(config.xmlAttributePrefix + attr.getKey(), attr.getValue());
-            }
-            for (Entry<String, List<Node>> items : elements.entrySet()) {
-                if (items.getValue().size() == 1) {
-                    Node item = items.getValue().get(0);
-                    JsonNode target = convertToJsonNode(item);
-                    node.set(trimNodeName(item.getNodeName()), target);
+            for (int group = 0; group < elements.groupCount(); group++) {
+                PathProjection.Step itemStep = childStep(step, elements.name(group));
+                boolean itemIncluded = isIncluded(itemStep, included);
+                int index = elements.first(group);
+                if (elements.size(group) == 1) {
+                    JsonNode item = convertElement(elements.node(index), lazy, itemStep, itemIncluded);
+                    if (itemIncluded || item.size() > 0) fields.put(elements.name(group), item);
                 } else {
-                    ArrayNode array = objectMapper.createArrayNode();
-                    for (Node xmlNode : items.getValue()) {
-                        JsonNode target = convertToJsonNode(xmlNode);
-                        array.add(target);
+                    List<JsonNode> array = new ArrayList<>(elements.size(group));
+                    for (; index >= 0; index = elements.next(index)) {
+                        JsonNode item = convertElement(elements.node(index), lazy, itemStep, itemIncluded);
+                        if (itemIncluded || item.size() > 0) array.add(item);
                     }
-                    node.set(trimNodeName(items.getKey()), array);
+                    if (array.size() == 1) fields.put(elements.name(group), array.get(0));
+                    else if (!array.isEmpty()) fields.put(elements.name(group), new ArrayNode(objectMapper.getNodeFactory(), array));
                 }
             }
-            if (value != null) {
-                String trimmed = trimStrValue(value);
-                if (!trimmed.isEmpty())
-                    node.put(config.xmlValueFieldName, trimmed);
+        } finally {
+            siblingGroups.exit();
+        }
+        if (value != null) {
+            CharSequence trimmed = trimText(value);
+            if (trimmed.length() > 0 && isProjected(childStep(step, config.xmlValueFieldName), included, true))
+                fields.put(config.xmlValueFieldName, textNode(trimmed));
+        }
+    }
+
+    /**
+     * Field map of a lazily converted JSON object. The backing XML node is converted on the first access
+     * and released afterwards, so the document must not be modified while the view is still in use.
+     * The conversion is not synchronized; a lazy view should not be shared between threads before it is fully read.
+     */
+    private class LazyFieldMap extends AbstractMap<String, JsonNode> {
+        private Node xml;
+        private final PathProjection.Step step;
+        private final boolean included;
+        private Map<String, JsonNode> fields;
+
+        LazyFieldMap(Node xml, PathProjection.Step step, boolean included) {
+            this.xml = xml;
+            this.step = step;
+            this.included = included;
+        }
+
+        /**
+         * Converts the backing XML node on the first call.
+         * @return the converted fields
+         */
+        private Map<String, JsonNode> fields() {
+            if (fields == null) {
+                Map<String, JsonNode> converted = new LinkedHashMap<>();
+                populateFields(xml, converted, true, step, included);
+                fields = converted;
+                xml = null;
             }
-            return node;
+            return fields;
+        }
+
+        @Override
+        public int size() {
+            return fields().size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return fields().isEmpty();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return fields().containsKey(key);
+        }
+
+        @Override
+        public JsonNode get(Object key) {
+            return fields().get(key);
+        }
+
+        @Override
+        public JsonNode put(String key, JsonNode value) {
+            return fields().put(key, value);
+        }
+
+        @Override
+        public JsonNode remove(Object key) {
+            return fields().remove(key);
+        }
+
+        @Override
+        public void clear() {
+            fields().clear();
+        }
+
+        @Override
+        public Set<String> keySet() {
+            return fields().keySet();
+        }
+
+        @Override
+        public Collection<JsonNode> values() {
+            return fields().values();
+        }
+
+        @Override
+        public Set<Entry<String, JsonNode>> entrySet() {
+            return fields().entrySet();
         }
-        if (value == null) value = config.nullAsEmptyString ? "" : null;
-        return new TextNode(trimStrValue(value));
     }
 
-    private static final String REGEX_NEWLINEONLY = "^[\\n\\r]+|[\\n\\r]+$";
-    private static final String REGEX_SPACEONLY = "^\\s+|\\s+$";
-    private static final String REGEX_NEWLINEANDSPACE = "^[\\n\\r\\s]+|[\\n\\r\\s]+$";
+    private static final int TRIM_NONE = 0;
+    private static final int TRIM_NEWLINE = 1;
+    private static final int TRIM_WHITESPACE = 2;
 
     /**
      * Trim the leading whitespace or newline character according to the configuration
      * @param value xml field value
      * @return trimmed value data
      */
-    private String trimStrValue(String value) {
-        if (value == null) return null;
-        else if (this.trimPattern == null) return value;
-        else return value.replaceAll(this.trimPattern, "");
+    String trimStrValue(String value) {
+        if (value == null || this.trimMode == TRIM_NONE) return value;
+        int start = 0;
+        int end = value.length();
+        while (start < end && isTrimmedChar(value.charAt(start))) start++;
+        while (end > start && isTrimmedChar(value.charAt(end - 1))) end--;
+        return start == 0 && end == value.length() ? value : value.substring(start, end);
+    }
+
+    /**
+     * Trims a text value according to the configuration. In text slice mode the result is a {@link CharSlice}
+     * sharing the characters of the value, otherwise it is a string.
+     * @param value the text value, or null
+     * @return the trimmed value, or null if the value is null
+     */
+    CharSequence trimText(String value) {
+        if (value == null || !config.textSlices) return trimStrValue(value);
+        int start = 0;
+        int end = value.length();
+        if (this.trimMode != TRIM_NONE) {
+            while (start < end && isTrimmedChar(value.charAt(start))) start++;
+            while (end > start && isTrimmedChar(value.charAt(end - 1))) end--;
+        }
+        return new CharSlice(value, start, end);
+    }
+
+    /**
+     * Converts a trimmed text value to a string node.
+     * @param value the value returned by {@link #trimText(String)}
+     * @return a TextSliceNode for a CharSlice, otherwise a TextNode
+     */
+    private JsonNode textNode(CharSequence value) {
+        if (value instanceof CharSlice) return new TextSliceNode((CharSlice) value);
+        return new TextNode((String) value);
+    }
+
+    /**
+     * Check whether a leading or trailing character is trimmed, matching the whitespace class of regular expressions
+     * @param c the character to check
+     * @return true if the character is trimmed
+     */
+    private boolean isTrimmedChar(char c) {
+        if (c == '\n' || c == '\r') return true;
+        return this.trimMode == TRIM_WHITESPACE && (c == ' ' || c == '\t' || c == '\u000B' || c == '\f');
     }
 
     private final Pattern findLastPathNode = Pattern.compile("/(?:.(?!/))+$");
@@ -23,6 +23,7 @@ package com.lalab.util.data;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Configuration class for the X2JConverter.
@@ -93,4 +94,70 @@ public class X2JConverterConfig {
      * If true, removes namespace aliases from XML element names during conversion.
      */
     public boolean removeNamespaceAlias = true;
-}
\ No newline at end of file
+
+    /**
+     * If true, converts XML elements lazily when they are first accessed instead of converting the whole document upfront.
+     * The returned JSON node keeps a reference to the XML document, which must not be modified while the node is in use.
+     */
+    public boolean lazyConversion = false;
+
+    /**
+     * JSON Pointer paths of the fields to convert. A "*" segment matches any field name and array items are not
+     * part of the path. Ancestors of the paths are kept with only the fields leading to them, without their own text,
+     * and are left out when none of these fields is present. If empty, every field is converted.
+     */
+    public List<String> includePaths = Collections.emptyList();
+
+    /**
+     * JSON Pointer paths of the fields to skip, using the same syntax as includePaths.
+     * Excluded subtrees are not converted at all and take precedence over included paths.
+     */
+    public List<String> excludePaths = Collections.emptyList();
+
+    /**
+     * Number of heap bytes the streaming writer may use for the pending children of open elements before it moves
+     * them to temporary files. Same-named siblings can only be grouped once their parent ends, so without a limit
+     * the whole document would be held in memory.
+     */
+    public long spillThreshold = 64L * 1024 * 1024;
+
+    /**
+     * Directory of the temporary files used by the streaming writer. If null, the default temporary directory is used.
+     */
+    public String spillDirectory = null;
+
+    /**
+     * New JSON field names by field name. Rules match the name a field would get without renaming, i.e. the element
+     * name without namespace alias or the attribute name with its prefix, and apply at any depth.
+     * Paths of the other options refer to the renamed fields.
+     */
+    public Map<String, String> renameFields = Collections.emptyMap();
+
+    /**
+     * Names of the fields to drop at any depth, matched like renameFields. Dropped elements are skipped without being converted.
+     */
+    public List<String> dropFields = Collections.emptyList();
+
+    /**
+     * Names of the fields whose elements convert to their text value when they have no child elements, matched like
+     * renameFields. This removes the object wrapper around the value field of elements with attributes.
+     */
+    public List<String> flattenFields = Collections.emptyList();
+
+    /**
+     * If true, text values are converted to {@link TextSliceNode}s sharing the characters of the DOM or of a buffer
+     * filled from the stream parser, and written to a JSON generator without creating strings.
+     * Strings are only created when the text of a node is requested. The option applies to the JSON trees of the x2J
+     * methods and to writex2J of a Document. The streaming writer behind writex2J of a stream builds no nodes and ignores it.
+     * Slice nodes are not equal to TextNodes, so trees converted with and without this option should be compared
+     * by their text values.
+     */
+    public boolean textSlices = false;
+
+    /**
+     * Prefixes of the JSON field names by namespace URI. Elements and attributes in these namespaces are named
+     * "prefix:localName", or just the local name for an empty prefix, whatever alias the document uses.
+     * Other nodes, and nodes of a DOM built without namespace awareness, are named as configured by removeNamespaceAlias.
+     */
+    public Map<String, String> namespacePrefixes = Collections.emptyMap();
+}
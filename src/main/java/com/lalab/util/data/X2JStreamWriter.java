@@ -0,0 +1,551 @@
+// MIT License
+
+// Copyright (c) 2024 lila-lalab
+
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+package com.lalab.util.data;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Writes the JSON representation of an XML stream to a JSON generator without building a JSON tree.
+ * Same-named siblings are grouped into arrays exactly as {@link X2JConverter#x2J(XMLStreamReader)} does, even when
+ * they are not adjacent, so the output can only be written once the document ends. Each element is encoded once,
+ * when it ends, as a record appended to a single {@link SpillBuffer} that moves to a temporary file once
+ * {@link X2JConverterConfig#spillThreshold} heap bytes are in use. A parent refers to the records of its children by
+ * position and the siblings of a group are chained through their records, so no encoded value is copied again and the
+ * heap only grows with the number of distinct field names of the open elements.
+ */
+final class X2JStreamWriter implements Closeable {
+    private static final int OBJECT = 1;
+    private static final int STRING = 2;
+    private static final int NULL = 3;
+
+    private static final long NO_RECORD = -1L;
+    private static final int RECORD_HEADER = 16;
+
+    private final X2JConverter converter;
+    private final X2JConverterConfig config;
+    private final SpillBuffer log;
+    private final List<Level> levels = new ArrayList<>();
+    private final List<Frame> frames = new ArrayList<>();
+    private final List<String> attributes = new ArrayList<>();
+    private final byte[] header = new byte[RECORD_HEADER];
+    private final byte[] chunk = new byte[8192];
+    private char[] chars = new char[64];
+    private long position;
+    private long end;
+    private int offset;
+    private int limit;
+
+    /**
+     * Constructs a writer for a single conversion.
+     * @param converter the converter providing the configuration and the name and value handling
+     */
+    X2JStreamWriter(X2JConverter converter) {
+        this.converter = converter;
+        this.config = converter.config;
+        this.log = new SpillBuffer(new SpillBuffer.Budget(config.spillThreshold),
+                config.spillDirectory == null ? null : Paths.get(config.spillDirectory));
+    }
+
+    /**
+     * Converts the XML document read by a stream reader and writes it to a generator.
+     * @param reader the XML stream reader positioned at the start of the document
+     * @param generator the generator to write the JSON data to
+     * @throws IOException if the output or a temporary file cannot be written
+     * @throws XMLStreamException if the XML input is malformed
+     */
+    void write(XMLStreamReader reader, JsonGenerator generator) throws IOException, XMLStreamException {
+        PathProjection.Step root = converter.rootStep();
+        boolean included = root == null;
+        long record = NO_RECORD;
+        if (config.tearSOAPEnvelope) {
+            X2JConverter.moveToStartElement(reader);
+            if (config.includeRoot) {
+                record = convert(reader, true, false, root, included, 0);
+            } else {
+                while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                    if (record == NO_RECORD && reader.getLocalName().equals("Body"))
+                        record = convert(reader, false, false, root, included, 0);
+                    else
+                        X2JConverter.skipElement(reader);
+                }
+            }
+        } else {
+            if (!config.includeRoot) X2JConverter.moveToStartElement(reader);
+            record = convert(reader, false, false, root, included, 0);
+        }
+
+        if (record == NO_RECORD) generator.writeNull();
+        else emit(generator, record, 0);
+        generator.flush();
+        log.reset();
+    }
+
+    /**
+     * Deletes the temporary file of the writer.
+     * @throws IOException if the temporary file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        levels.clear();
+        frames.clear();
+        log.close();
+    }
+
+    /**
+     * Converts the current element, or the whole document, of a stream reader into a record of the log.
+     * Leaves the reader at the matching end element or at the end of the document.
+     *
+     * @param reader the XML stream reader positioned at a start element or at the start of the document
+     * @param envelope whether only the SOAP body child elements are converted
+     * @param flatten whether the element converts to its text value unless it has child elements
+     * @param step the projection step of the node, or null if no path continues below it
+     * @param included whether the whole subtree of the node is included by the projection
+     * @param depth the depth of the node
+     * @return the position of the record holding the JSON value of the node, or NO_RECORD if the node is dropped
+     *         by the projection
+     * @throws IOException if a temporary file cannot be written
+     * @throws XMLStreamException if the XML input is malformed
+     */
+    private long convert(XMLStreamReader reader, boolean envelope, boolean flatten, PathProjection.Step step, boolean included,
+            int depth) throws IOException, XMLStreamException {
+        if (depth == levels.size()) levels.add(new Level(log));
+        Level level = levels.get(depth);
+        level.reset();
+        boolean hasContent = false;
+        boolean hasElements = false;
+        if (reader.getEventType() == XMLStreamConstants.START_ELEMENT && !config.ignoreXmlAttribute
+                && reader.getAttributeCount() + reader.getNamespaceCount() > 0) {
+            attributes.clear();
+            hasContent = converter.readStreamAttributes(reader, (name, value) -> {
+                attributes.add(name);
+                attributes.add(value.toString());
+            }, step, included);
+            for (int i = 0; i < attributes.size(); i += 2) level.add(attributes.get(i), writeString(attributes.get(i + 1)), false);
+        }
+
+        String value = null;
+        StringBuilder textRun = null;
+        boolean inTextRun = false;
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE) {
+                if (!inTextRun) {
+                    value = reader.getText();
+                    textRun = null;
+                    inTextRun = true;
+                } else {
+                    if (textRun == null) textRun = new StringBuilder(value);
+                    textRun.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                }
+                continue;
+            }
+            if (textRun != null) {
+                value = textRun.toString();
+                textRun = null;
+            }
+            inTextRun = false;
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    if (envelope && !X2JConverter.qualifiedName(reader).endsWith("Body")) {
+                        X2JConverter.skipElement(reader);
+                        break;
+                    }
+                    hasContent = true;
+                    hasElements = true;
+                    String nodeName = converter.elementName(reader);
+                    FieldRules.Rule rule = converter.fieldRule(nodeName);
+                    if (rule != null) {
+                        if (rule.drop) {
+                            X2JConverter.skipElement(reader);
+                            break;
+                        }
+                        nodeName = rule.name;
+                    }
+                    PathProjection.Step childStep = X2JConverter.childStep(step, nodeName);
+                    if (!X2JConverter.isProjected(childStep, included, false)) {
+                        X2JConverter.skipElement(reader);
+                        break;
+                    }
+                    long child = convert(reader, false, rule != null && rule.flatten, childStep,
+                            X2JConverter.isIncluded(childStep, included), depth + 1);
+                    if (child != NO_RECORD) level.add(nodeName, child, true);
+                    break;
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.COMMENT:
+                    if (!envelope) value = reader.getText();
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    if (!envelope) value = reader.getPIData();
+                    break;
+                case XMLStreamConstants.DTD:
+                    value = null;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                case XMLStreamConstants.END_DOCUMENT:
+                    if (envelope) value = null;
+                    if (included && (!hasContent || (flatten && !hasElements))) {
+                        if (value == null) value = config.nullAsEmptyString ? "" : null;
+                        return writeString(converter.trimStrValue(value));
+                    }
+                    if (value != null) {
+                        String trimmed = converter.trimStrValue(value);
+                        if (!trimmed.isEmpty() && X2JConverter.isProjected(
+                                X2JConverter.childStep(step, config.xmlValueFieldName), included, true))
+                            level.add(config.xmlValueFieldName, writeString(trimmed), false);
+                    }
+                    // an element only leading to included paths is dropped when none of them is present
+                    if (!included && depth > 0 && level.order.isEmpty()) return NO_RECORD;
+                    return writeObject(level);
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Appends a string record to the log.
+     * @param value the string value, or null
+     * @return the position of the record
+     * @throws IOException if the temporary file cannot be written
+     */
+    private long writeString(String value) throws IOException {
+        long record = beginRecord();
+        if (value == null) {
+            log.write(NULL);
+        } else {
+            log.write(STRING);
+            writeChars(value);
+        }
+        return endRecord(record);
+    }
+
+    /**
+     * Appends an object record to the log, listing the name, size and first record of every field of a level.
+     * @param level the fields of the element
+     * @return the position of the record
+     * @throws IOException if the temporary file cannot be written
+     */
+    private long writeObject(Level level) throws IOException {
+        long record = beginRecord();
+        log.write(OBJECT);
+        writeLength(level.order.size());
+        for (Group group : level.order) {
+            writeChars(group.name);
+            writeLength(group.count);
+            log.writeLong(group.first);
+        }
+        level.reset();
+        return endRecord(record);
+    }
+
+    /**
+     * Starts a new record at the end of the log, made of the position of the next record of the same field,
+     * the length of the encoded value and the encoded value itself.
+     * @return the position of the record
+     * @throws IOException if the temporary file cannot be written
+     */
+    private long beginRecord() throws IOException {
+        long record = log.length();
+        log.writeLong(NO_RECORD);
+        log.writeLong(0);
+        return record;
+    }
+
+    /**
+     * Completes the record written since {@link #beginRecord()}.
+     * @param record the position of the record
+     * @return the position of the record
+     * @throws IOException if the temporary file cannot be written
+     */
+    private long endRecord(long record) throws IOException {
+        log.putLong(record + 8, log.length() - record - RECORD_HEADER);
+        return record;
+    }
+
+    /**
+     * Writes the length and the chars of a string, each char in one to three bytes.
+     * @param value the string to write
+     * @throws IOException if the temporary file cannot be written
+     */
+    private void writeChars(String value) throws IOException {
+        writeLength(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                log.write(c);
+            } else if (c < 0x800) {
+                log.write(0xC0 | (c >> 6));
+                log.write(0x80 | (c & 0x3F));
+            } else {
+                log.write(0xE0 | (c >> 12));
+                log.write(0x80 | ((c >> 6) & 0x3F));
+                log.write(0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * Writes a non-negative length in seven-bit groups.
+     * @param length the length to write
+     * @throws IOException if the temporary file cannot be written
+     */
+    private void writeLength(int length) throws IOException {
+        while (length >= 0x80) {
+            log.write((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        log.write(length);
+    }
+
+    /**
+     * Writes the JSON value of a record to a generator, following the records of its fields.
+     * The field table of an object is read before its fields, so every byte of the log is read once.
+     * @param generator the generator to write to
+     * @param record the position of the record
+     * @param depth the depth of the record
+     * @return the position of the next record of the same field, or -1 if it is the last one
+     * @throws IOException if the output or the temporary file cannot be written
+     */
+    private long emit(JsonGenerator generator, long record, int depth) throws IOException {
+        log.read(record, header, 0, RECORD_HEADER);
+        long next = decodeLong(0);
+        seek(record + RECORD_HEADER, decodeLong(8));
+        int kind = readByte();
+        if (kind == STRING) {
+            int length = readChars();
+            generator.writeString(chars, 0, length);
+        } else if (kind == NULL) {
+            generator.writeNull();
+        } else {
+            if (depth == frames.size()) frames.add(new Frame());
+            Frame frame = frames.get(depth);
+            int fieldCount = frame.read(this);
+            generator.writeStartObject();
+            for (int i = 0; i < fieldCount; i++) {
+                generator.writeFieldName(frame.names[i]);
+                if (frame.counts[i] > 1) generator.writeStartArray();
+                long item = frame.firsts[i];
+                for (int k = 0; k < frame.counts[i]; k++) item = emit(generator, item, depth + 1);
+                if (frame.counts[i] > 1) generator.writeEndArray();
+            }
+            generator.writeEndObject();
+            frame.clear(fieldCount);
+        }
+        return next;
+    }
+
+    /**
+     * Decodes a long of the record header.
+     * @param index the offset of the long in the header
+     * @return the value
+     */
+    private long decodeLong(int index) {
+        long value = 0;
+        for (int i = index; i < index + 8; i++) value = (value << 8) | (header[i] & 0xFF);
+        return value;
+    }
+
+    /**
+     * Positions the reader on a range of the log.
+     * @param start the position of the first byte
+     * @param length the number of bytes of the range
+     */
+    private void seek(long start, long length) {
+        position = start;
+        end = start + length;
+        offset = 0;
+        limit = 0;
+    }
+
+    /**
+     * Decodes a string into the shared char array.
+     * @return the length of the string
+     * @throws IOException if the temporary file cannot be read
+     */
+    private int readChars() throws IOException {
+        int length = readLength();
+        if (chars.length < length) chars = new char[Math.max(length, chars.length * 2)];
+        for (int i = 0; i < length; i++) {
+            int c = readByte();
+            if (c >= 0xE0) c = ((c & 0x0F) << 12) | ((readByte() & 0x3F) << 6) | (readByte() & 0x3F);
+            else if (c >= 0xC0) c = ((c & 0x1F) << 6) | (readByte() & 0x3F);
+            chars[i] = (char) c;
+        }
+        return length;
+    }
+
+    /**
+     * Decodes a length written by {@link #writeLength(int)}.
+     * @return the length
+     * @throws IOException if the temporary file cannot be read
+     */
+    private int readLength() throws IOException {
+        int length = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = readByte();
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return length;
+    }
+
+    /**
+     * Decodes a long in big-endian order.
+     * @return the value
+     * @throws IOException if the temporary file cannot be read
+     */
+    private long readLong() throws IOException {
+        long value = 0;
+        for (int i = 0; i < 8; i++) value = (value << 8) | readByte();
+        return value;
+    }
+
+    /**
+     * Reads the next byte of the current range, refilling the chunk from the log.
+     * @return the byte value
+     * @throws IOException if the temporary file cannot be read
+     */
+    private int readByte() throws IOException {
+        if (offset == limit) {
+            limit = (int) Math.min(chunk.length, end - position);
+            if (limit <= 0) throw new EOFException();
+            log.read(position, chunk, 0, limit);
+            position += limit;
+            offset = 0;
+        }
+        return chunk[offset++] & 0xFF;
+    }
+
+    /**
+     * The fields of an open element, with the positions of the first and last records of each field.
+     */
+    private static final class Level {
+        final SpillBuffer log;
+        final Map<String, Group> groups = new HashMap<>();
+        final List<Group> order = new ArrayList<>();
+
+        /**
+         * Constructs an empty level.
+         * @param log the log holding the records of the fields
+         */
+        Level(SpillBuffer log) {
+            this.log = log;
+        }
+
+        /**
+         * Adds a record to a field.
+         * @param name the field name
+         * @param record the position of the record
+         * @param append whether the record is appended to an existing field instead of replacing its value
+         * @throws IOException if the temporary file cannot be written
+         */
+        void add(String name, long record, boolean append) throws IOException {
+            Group group = groups.get(name);
+            if (group == null) {
+                group = new Group(name);
+                groups.put(name, group);
+                order.add(group);
+            } else if (append) {
+                log.putLong(group.last, record);
+                group.last = record;
+                group.count++;
+                return;
+            }
+            group.first = record;
+            group.last = record;
+            group.count = 1;
+        }
+
+        /**
+         * Discards the fields so the level can be reused by the next element of the same depth.
+         */
+        void reset() {
+            groups.clear();
+            order.clear();
+        }
+    }
+
+    /**
+     * A field of an open element with the positions of its first and last records.
+     */
+    private static final class Group {
+        final String name;
+        long first;
+        long last;
+        int count;
+
+        Group(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * The field table of an object record being written, reused by the objects of the same depth.
+     */
+    private static final class Frame {
+        String[] names = new String[8];
+        int[] counts = new int[8];
+        long[] firsts = new long[8];
+
+        /**
+         * Reads the field table at the current position of the writer.
+         * @param writer the writer positioned after the record kind
+         * @return the number of fields
+         * @throws IOException if the temporary file cannot be read
+         */
+        int read(X2JStreamWriter writer) throws IOException {
+            int fieldCount = writer.readLength();
+            if (fieldCount > names.length) {
+                names = new String[fieldCount];
+                counts = new int[fieldCount];
+                firsts = new long[fieldCount];
+            }
+            for (int i = 0; i < fieldCount; i++) {
+                int length = writer.readChars();
+                names[i] = new String(writer.chars, 0, length);
+                counts[i] = writer.readLength();
+                firsts[i] = writer.readLong();
+            }
+            return fieldCount;
+        }
+
+        void clear(int fieldCount) {
+            Arrays.fill(names, 0, fieldCount, null);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+// MIT License
+
+// Copyright (c) 2024 lila-lalab
+
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.lalab.util.data;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+/**
+ * Fails when a change raises the bytes allocated per converted element above the budgets.
+ * Each budget is a baseline measured by this test on OpenJDK 17 (HotSpot, 64-bit, compressed oops) plus a tolerance
+ * of {@value #TOLERANCE_PERCENT}%, which absorbs differences between JVM versions and collectors, so only a real
+ * regression trips it. After an intended change in allocation, update the baseline to the reported measurement.
+ */
+class AllocationBudgetTest {
+    private static final int WARMUP_ITERATIONS = 200;
+    private static final int MEASURED_ITERATIONS = 50;
+    private static final int TOLERANCE_PERCENT = 50;
+
+    @Test
+    void testX2JBudget() throws Exception {
+        assertBudget("x2J", 417, convertX2J(new SyntheticDocuments()));
+        assertBudget("x2J wide", 434, convertX2J(new SyntheticDocuments().depth(2).fanOut(30)));
+        assertBudget("x2J attributes", 897, convertX2J(new SyntheticDocuments().attributes(4)));
+    }
+
+    @Test
+    void testWriteX2JBudget() throws Exception {
+        SyntheticDocuments shape = new SyntheticDocuments().textLength(64);
+        X2JConverter converter = new X2JConverter(attributeConfig());
+        Document doc = shape.document();
+        Writer sink = new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int length) {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        assertBudget("writex2J", 567, measure(shape.elementCount(), () -> converter.writex2J(doc, sink)));
+    }
+
+    @Test
+    void testJ2XBudget() throws Exception {
+        SyntheticDocuments shape = new SyntheticDocuments();
+        JsonNode json = new X2JConverter(attributeConfig()).x2J(shape.document());
+        J2XConverter converter = new J2XConverter(new J2XConverterConfig());
+        assertBudget("j2x", 689, measure(shape.elementCount(), () -> converter.j2x(json)));
+    }
+
+    @Test
+    void testSiblingGroupsBudget() throws Exception {
+        SyntheticDocuments shape = new SyntheticDocuments().depth(1).fanOut(SiblingGroups.MAX_RETAINED_CHILDREN);
+        NodeList children = shape.document().getDocumentElement().getChildNodes();
+        int childCount = children.getLength();
+        SiblingGroups siblingGroups = new SiblingGroups();
+        long reused = measure(childCount, () -> {
+            SiblingGroups.Level level = siblingGroups.enter(childCount);
+            for (int i = 0; i < childCount; i++) level.add(children.item(i).getNodeName(), children.item(i));
+            siblingGroups.exit();
+        });
+        // the per-element grouping that the reusable levels replaced
+        long mapped = measure(childCount, () -> {
+            Map<String, List<Node>> groups = new LinkedHashMap<>();
+            for (int i = 0; i < childCount; i++) groups.computeIfAbsent(children.item(i).getNodeName(), name -> new ArrayList<>()).add(children.item(i));
+        });
+
+        assertBudget("sibling groups", 0, reused);
+        assertTrue(mapped > 0, "map grouping is expected to allocate");
+    }
+
+    private long convertX2J(SyntheticDocuments shape) throws Exception {
+        X2JConverter converter = new X2JConverter(attributeConfig());
+        Document doc = shape.document();
+        return measure(shape.elementCount(), () -> converter.x2J(doc));
+    }
+
+    private X2JConverterConfig attributeConfig() {
+        X2JConverterConfig config = new X2JConverterConfig();
+        config.ignoreXmlAttribute = false;
+        return config;
+    }
+
+    /**
+     * Runs the conversion repeatedly and returns the bytes it allocated per element of the document.
+     */
+    private long measure(int elementCount, Conversion conversion) throws Exception {
+        java.lang.management.ThreadMXBean platformBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(platformBean instanceof com.sun.management.ThreadMXBean, "thread allocation accounting is not available");
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) platformBean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled());
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) conversion.run();
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) conversion.run();
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+        return allocated / MEASURED_ITERATIONS / elementCount;
+    }
+
+    /**
+     * Checks a measurement against its baseline plus the tolerance.
+     */
+    private void assertBudget(String name, long baseline, long bytesPerElement) {
+        long budget = baseline * (100 + TOLERANCE_PERCENT) / 100;
+        assertTrue(bytesPerElement <= budget, name + " allocated " + bytesPerElement + " bytes per element, budget is " + budget
+                + " (baseline " + baseline + ")");
+    }
+
+    private interface Conversion {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,167 @@
+// MIT License
+
+// Copyright (c) 2024 lila-lalab
+
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.lalab.util.data;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BulkConverterTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testConvertDirectory() throws Exception {
+        Path input = Files.createDirectories(tempDir.resolve("in/nested"));
+        Files.write(input.resolve("person.xml"), "<root><person id=\"1\"><name>John</name></person></root>".getBytes(StandardCharsets.UTF_8));
+        Files.write(input.resolve("order.json"), "{\"order\":{\"id\":7}}".getBytes(StandardCharsets.UTF_8));
+        Path config = tempDir.resolve("config.properties");
+        Files.write(config, "x2j.ignoreXmlAttribute=false\nj2x.rootName=request\n".getBytes(StandardCharsets.UTF_8));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int exitCode = BulkConverter.run(new String[] {"--config=" + config, "--threads=2", tempDir.resolve("in").toString(), tempDir.resolve("out").toString()},
+                new PrintStream(out), System.err);
+
+        assertEquals(0, exitCode);
+        JsonNode json = new ObjectMapper().readTree(tempDir.resolve("out/nested/person.json").toFile());
+        assertEquals("1", json.at("/person/@id").asText());
+        String xml = new String(Files.readAllBytes(tempDir.resolve("out/nested/order.xml")), StandardCharsets.UTF_8);
+        assertTrue(xml.contains("<request><order><id>7</id></order></request>"));
+        assertTrue(out.toString().contains("Converted 2 files (0 failed)"));
+    }
+
+    @Test
+    void testConvertGlob() throws Exception {
+        Path input = Files.createDirectories(tempDir.resolve("in"));
+        Files.write(input.resolve("a.xml"), "<root><name>A</name></root>".getBytes(StandardCharsets.UTF_8));
+        Files.write(input.resolve("b.xml"), "<root><name>B</name></root>".getBytes(StandardCharsets.UTF_8));
+        Files.write(input.resolve("c.json"), "{\"name\":\"C\"}".getBytes(StandardCharsets.UTF_8));
+
+        int exitCode = BulkConverter.run(new String[] {input + "/a*.xml", tempDir.resolve("out").toString()}, new PrintStream(new ByteArrayOutputStream()), System.err);
+
+        assertEquals(0, exitCode);
+        assertTrue(Files.exists(tempDir.resolve("out/a.json")));
+        assertFalse(Files.exists(tempDir.resolve("out/b.json")));
+        assertFalse(Files.exists(tempDir.resolve("out/c.xml")));
+    }
+
+    @Test
+    void testRecursiveGlobMatchesTopLevel() throws Exception {
+        Path input = Files.createDirectories(tempDir.resolve("in/nested"));
+        Files.write(tempDir.resolve("in/a.xml"), "<root><name>A</name></root>".getBytes(StandardCharsets.UTF_8));
+        Files.write(input.resolve("b.xml"), "<root><name>B</name></root>".getBytes(StandardCharsets.UTF_8));
+
+        int exitCode = BulkConverter.run(new String[] {tempDir.resolve("in") + "/**/*.xml", tempDir.resolve("out").toString()},
+                new PrintStream(new ByteArrayOutputStream()), System.err);
+
+        assertEquals(0, exitCode);
+        assertTrue(Files.exists(tempDir.resolve("out/a.json")));
+        assertTrue(Files.exists(tempDir.resolve("out/nested/b.json")));
+    }
+
+    @Test
+    void testForcedDirectionKeepsExtensionFilter() throws Exception {
+        Path input = Files.createDirectories(tempDir.resolve("in"));
+        Files.write(input.resolve("a.xml"), "<root><name>A</name></root>".getBytes(StandardCharsets.UTF_8));
+        Files.write(input.resolve("b.json"), "{\"name\":\"B\"}".getBytes(StandardCharsets.UTF_8));
+        Files.write(input.resolve("notes.txt"), "not a document".getBytes(StandardCharsets.UTF_8));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int exitCode = BulkConverter.run(new String[] {"--direction=x2j", input.toString(), tempDir.resolve("out").toString()},
+                new PrintStream(out), System.err);
+
+        assertEquals(0, exitCode);
+        assertTrue(Files.exists(tempDir.resolve("out/a.json")));
+        assertFalse(Files.exists(tempDir.resolve("out/b.xml")));
+        assertFalse(Files.exists(tempDir.resolve("out/notes.json")));
+        assertTrue(out.toString().contains("Converted 1 files (0 failed)"));
+    }
+
+    @Test
+    void testInvalidThreads() {
+        for (String threads : new String[] {"0", "-2", "many"}) {
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            int exitCode = BulkConverter.run(new String[] {"--threads=" + threads, tempDir.toString(), tempDir.resolve("out").toString()},
+                    new PrintStream(new ByteArrayOutputStream()), new PrintStream(err));
+
+            assertEquals(2, exitCode);
+            assertTrue(err.toString().contains("--threads expects a positive number"));
+        }
+    }
+
+    @Test
+    void testApplyProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("x2j.xmlArrayFields", "/a, /b");
+        properties.setProperty("x2j.trimNewLine", "false");
+        properties.setProperty("x2j.renameFields", "cust=customer, @ID=@id");
+        X2JConverterConfig config = new X2JConverterConfig();
+        BulkConverter.applyProperties(config, properties, "x2j.");
+
+        assertEquals(2, config.xmlArrayFields.size());
+        assertEquals("/b", config.xmlArrayFields.get(1));
+        assertFalse(config.trimNewLine);
+        assertEquals("@id", config.renameFields.get("@ID"));
+
+        properties.setProperty("x2j.unknown", "true");
+        assertThrows(IllegalArgumentException.class, () -> BulkConverter.applyProperties(config, properties, "x2j."));
+    }
+
+    @Test
+    void testInvalidBooleanProperty() {
+        Properties properties = new Properties();
+        properties.setProperty("x2j.trimNewLine", "ture");
+        X2JConverterConfig config = new X2JConverterConfig();
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> BulkConverter.applyProperties(config, properties, "x2j."));
+        assertTrue(e.getMessage().contains("'ture'"));
+        assertTrue(config.trimNewLine);
+    }
+
+    @Test
+    void testOutputInsideInputRejected() throws Exception {
+        Path input = Files.createDirectories(tempDir.resolve("in"));
+        Files.write(input.resolve("a.xml"), "<root><a>1</a></root>".getBytes(StandardCharsets.UTF_8));
+        for (Path output : new Path[] {input, input.resolve("out"), input.resolve("sub/../out")}) {
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            int exitCode = BulkConverter.run(new String[] {input.toString(), output.toString()},
+                    new PrintStream(new ByteArrayOutputStream()), new PrintStream(err));
+
+            assertEquals(2, exitCode);
+            assertTrue(err.toString().contains("must not be inside the input directory"));
+        }
+        assertFalse(Files.exists(input.resolve("a.json")));
+        assertFalse(Files.exists(input.resolve("out")));
+    }
+}
@@ -0,0 +1,184 @@
+// MIT License
+
+// Copyright (c) 2024 lila-lalab
+
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+package com.lalab.util.data;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConversionCacheTest {
+
+    @Test
+    void testX2JCacheHit() throws Exception {
+        ConversionCache cache = new ConversionCache(10, 1 << 20);
+        X2JConverter converter = new X2JConverter(new X2JConverterConfig());
+        byte[] xml = "<root><name>John</name></root>".getBytes(StandardCharsets.UTF_8);
+
+        JsonNode first = cache.x2J(converter, xml);
+        ((ObjectNode) first).put("name", "Jane");
+        JsonNode second = cache.x2J(converter, xml.clone());
+
+        assertEquals("John", second.get("name").asText());
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    void testConfigFingerprintSeparatesEntries() throws Exception {
+        ConversionCache cache = new ConversionCache(10, 1 << 20);
+        byte[] xml = "<root><person id=\"1\"/></root>".getBytes(StandardCharsets.UTF_8);
+        X2JConverterConfig config = new X2JConverterConfig();
+        JsonNode withoutAttributes = cache.x2J(new X2JConverter(config), xml);
+        config.ignoreXmlAttribute = false;
+        JsonNode withAttributes = cache.x2J(new X2JConverter(config), xml);
+
+        assertTrue(withoutAttributes.get("person").isTextual());
+        assertEquals("1", withAttributes.at("/person/@id").asText());
+        assertEquals(2, cache.missCount());
+    }
+
+    @Test
+    void testJ2XCacheReturnsCopies() throws Exception {
+        ConversionCache cache = new ConversionCache(10, 1 << 20);
+        J2XConverter converter = new J2XConverter(new J2XConverterConfig());
+        byte[] json = "{\"name\":\"John\"}".getBytes(StandardCharsets.UTF_8);
+
+        Document first = cache.j2x(converter, json);
+        first.getDocumentElement().setAttribute("changed", "true");
+        Document second = cache.j2x(converter, json);
+
+        assertEquals("", second.getDocumentElement().getAttribute("changed"));
+        assertEquals("John", second.getElementsByTagName("name").item(0).getTextContent());
+        assertEquals(1, cache.hitCount());
+    }
+
+    @Test
+    void testEviction() throws Exception {
+        ConversionCache cache = new ConversionCache(2, 1 << 20);
+        X2JConverter converter = new X2JConverter(new X2JConverterConfig());
+        for (int i = 0; i < 3; i++) {
+            cache.x2J(converter, ("<root><id>" + i + "</id></root>").getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictionCount());
+
+        long entryWeight = cache.weight() / 2;
+        ConversionCache small = new ConversionCache(10, entryWeight * 2 + entryWeight / 2);
+        for (int i = 0; i < 3; i++) {
+            small.x2J(converter, ("<root><id>" + i + "</id></root>").getBytes(StandardCharsets.UTF_8));
+        }
+        assertTrue(small.weight() <= entryWeight * 2 + entryWeight / 2);
+        assertEquals(1, small.evictionCount());
+    }
+
+    @Test
+    void testWeightIncludesResults() throws Exception {
+        ConversionCache cache = new ConversionCache(10, 1 << 20);
+        StringBuilder xml = new StringBuilder("<root>");
+        for (int i = 0; i < 100; i++) xml.append("<item><name>n").append(i).append("</name></item>");
+        byte[] input = xml.append("</root>").toString().getBytes(StandardCharsets.UTF_8);
+        JsonNode json = cache.x2J(new X2JConverter(new X2JConverterConfig()), input);
+
+        assertEquals(input.length + ConversionCache.weigh(json), cache.weight());
+        assertTrue(cache.weight() > 2L * input.length);
+
+        byte[] jsonInput = json.toString().getBytes(StandardCharsets.UTF_8);
+        Document doc = cache.j2x(new J2XConverter(new J2XConverterConfig()), jsonInput);
+        assertEquals(input.length + ConversionCache.weigh(json) + jsonInput.length + ConversionCache.weigh(doc), cache.weight());
+
+        // a result that does not fit the bound is not cached, however small its input
+        ConversionCache small = new ConversionCache(10, input.length * 2L);
+        small.x2J(new X2JConverter(new X2JConverterConfig()), input);
+        assertEquals(0, small.size());
+    }
+
+    @Test
+    void testFingerprintFollowsLiveConfig() throws Exception {
+        ConversionCache cache = new ConversionCache(10, 1 << 20);
+        byte[] xml = "<root><person id=\"1\"><name>John</name></person></root>".getBytes(StandardCharsets.UTF_8);
+        X2JConverterConfig config = new X2JConverterConfig();
+        X2JConverter converter = new X2JConverter(config);
+        String fingerprint = converter.configFingerprint();
+        assertSame(fingerprint, converter.configFingerprint());
+        assertTrue(cache.x2J(converter, xml).get("person").isObject());
+
+        // a live field changes the converter output and the key
+        config.ignoreXmlAttribute = false;
+        assertNotEquals(fingerprint, converter.configFingerprint());
+        assertEquals("1", cache.x2J(converter, xml).at("/person/@id").asText());
+        assertEquals(2, cache.missCount());
+
+        // a compiled field does not change the converter, nor its key
+        String live = converter.configFingerprint();
+        config.includePaths = Arrays.asList("/person/name");
+        assertEquals(live, converter.configFingerprint());
+        assertEquals(live, converter.configFingerprint());
+        assertNotEquals(live, new X2JConverter(config).configFingerprint());
+    }
+
+    @Test
+    void testFingerprintSeesListChangesInPlace() throws Exception {
+        X2JConverterConfig config = new X2JConverterConfig();
+        config.xmlArrayFields = new ArrayList<>();
+        X2JConverter converter = new X2JConverter(config);
+        String fingerprint = converter.configFingerprint();
+        config.xmlArrayFields.add("/person");
+
+        assertNotEquals(fingerprint, converter.configFingerprint());
+    }
+
+    @Test
+    void testWeighTextSlices() throws Exception {
+        X2JConverterConfig config = new X2JConverterConfig();
+        config.textSlices = true;
+        JsonNode json = new X2JConverter(config).x2J(new ByteArrayInputStream("<root><name>John</name></root>".getBytes(StandardCharsets.UTF_8)));
+        TextSliceNode name = (TextSliceNode) json.get("name");
+
+        assertEquals(ConversionCache.weigh(new TextNode("John")), ConversionCache.weigh(name));
+        assertEquals(ConversionCache.weigh(new TextNode("John")), ConversionCache.weigh(new TextNode("John")));
+    }
+
+    @Test
+    void testCachedResultMatchesDocument() throws Exception {
+        ConversionCache cache = new ConversionCache(10, 1 << 20);
+        X2JConverter converter = new X2JConverter(new X2JConverterConfig());
+        String xml = "<root><c>t<![CDATA[u]]>v</c></root>";
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+
+        assertEquals(converter.x2J(doc), cache.x2J(converter, xml.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,173 @@
+// MIT License
+
+// Copyright (c) 2024 lila-lalab
+
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.lalab.util.data;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.stream.XMLStreamException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConversionPipelineTest {
+    private ConversionPipeline pipeline;
+
+    @BeforeEach
+    public void setUp() {
+        pipeline = new ConversionPipeline(256, 2);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        pipeline.close();
+    }
+
+    @Test
+    void testGzipX2J() throws Exception {
+        StringBuilder xml = new StringBuilder("<root>");
+        for (int i = 0; i < 1000; i++) xml.append("<item><id>").append(i).append("</id></item>");
+        xml.append("</root>");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pipeline.x2J(new X2JConverter(new X2JConverterConfig()), new ByteArrayInputStream(gzip(xml.toString())), ConversionPipeline.Compression.GZIP,
+                out, ConversionPipeline.Compression.GZIP, JsonFormat.JSON);
+
+        JsonNode json = new ObjectMapper().readTree(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())));
+        assertEquals(1000, json.get("item").size());
+        assertEquals("999", json.at("/item/999/id").asText());
+    }
+
+    @Test
+    void testJ2XWithDeflateOutput() throws Exception {
+        byte[] json = "{\"name\":\"John\",\"items\":[1,2,3]}".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pipeline.j2x(new J2XConverter(new J2XConverterConfig()), new ByteArrayInputStream(json), ConversionPipeline.Compression.NONE,
+                out, ConversionPipeline.Compression.DEFLATE);
+
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        try (InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            byte[] buffer = new byte[256];
+            int length;
+            while ((length = in.read(buffer)) >= 0) xml.write(buffer, 0, length);
+        }
+        assertTrue(xml.toString("UTF-8").endsWith("<root><name>John</name><items>1</items><items>2</items><items>3</items></root>"));
+    }
+
+    @Test
+    void testStagesOverlap() throws Exception {
+        StringBuilder json = new StringBuilder("{\"items\":[");
+        for (int i = 0; i < 20000; i++) json.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append("}");
+        byte[] data = json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+        CountDownLatch written = new CountDownLatch(1);
+        boolean[] overlapped = new boolean[1];
+        // the second half of the input is only read once output has been written, which a run of the stages
+        // one after the other would never do
+        InputStream in = new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte[] buffer, int offset, int length) {
+                if (pos >= data.length / 2 && !overlapped[0]) {
+                    try {
+                        overlapped[0] = written.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.read(buffer, offset, length);
+            }
+        };
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public synchronized void write(byte[] buffer, int offset, int length) {
+                super.write(buffer, offset, length);
+                written.countDown();
+            }
+        };
+
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> pipeline.j2x(new J2XConverter(new J2XConverterConfig()), in,
+                ConversionPipeline.Compression.NONE, out, ConversionPipeline.Compression.NONE));
+
+        assertTrue(overlapped[0]);
+        assertTrue(out.toString("UTF-8").endsWith("</root>"));
+    }
+
+    @Test
+    void testConversionFailureStopsStages() {
+        byte[] xml = "<root><unclosed></root>".getBytes(StandardCharsets.UTF_8);
+        assertThrows(XMLStreamException.class, () -> pipeline.x2J(new X2JConverter(new X2JConverterConfig()), new ByteArrayInputStream(xml),
+                ConversionPipeline.Compression.NONE, new ByteArrayOutputStream(), ConversionPipeline.Compression.NONE, JsonFormat.JSON));
+    }
+
+    @Test
+    void testConversionErrorStopsStages() {
+        StringBuilder xml = new StringBuilder("<root>");
+        for (int i = 0; i < 1000; i++) xml.append("<item>").append(i).append("</item>");
+        byte[] input = xml.append("</root>").toString().getBytes(StandardCharsets.UTF_8);
+        X2JConverter failing = new X2JConverter(new X2JConverterConfig()) {
+            @Override
+            public void writex2J(InputStream in, JsonGenerator generator) throws IOException {
+                in.read();
+                throw new StackOverflowError();
+            }
+        };
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> assertThrows(StackOverflowError.class, () -> pipeline.x2J(failing,
+                new ByteArrayInputStream(input), ConversionPipeline.Compression.NONE, new ByteArrayOutputStream(), ConversionPipeline.Compression.NONE, JsonFormat.JSON)));
+        // the reading and writing stages have stopped instead of polling their queues
+        boolean polling = Thread.getAllStackTraces().values().stream().flatMap(Arrays::stream)
+                .anyMatch(frame -> frame.getClassName().endsWith("ConversionPipeline$ChunkQueue"));
+        assertFalse(polling);
+    }
+
+    @Test
+    void testCorruptInputFails() {
+        byte[] notGzip = "<root/>".getBytes(StandardCharsets.UTF_8);
+        assertThrows(IOException.class, () -> pipeline.x2J(new X2JConverter(new X2JConverterConfig()), new ByteArrayInputStream(notGzip),
+                ConversionPipeline.Compression.GZIP, new ByteArrayOutputStream(), ConversionPipeline.Compression.NONE, JsonFormat.JSON));
+    }
+
+    private byte[] gzip(String data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data.getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+}
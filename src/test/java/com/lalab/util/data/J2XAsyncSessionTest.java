@@ -0,0 +1,125 @@
+// MIT License
+
+// Copyright (c) 2024 lila-lalab
+
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.lalab.util.data;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class J2XAsyncSessionTest {
+    private J2XConverterConfig config;
+    private ObjectMapper objectMapper;
+
+    @BeforeEach
+    public void setUp() {
+        config = new J2XConverterConfig();
+        objectMapper = new ObjectMapper();
+    }
+
+    @Test
+    void testChunkedFeedMatchesJ2X() throws Exception {
+        String json = "{\"person\":{\"@id\":\"123\",\"name\":\"John\",\"age\":30,\"score\":1.5},\"tags\":[\"a\",[\"b\"],{\"x\":true}],\"empty\":[],\"none\":null}";
+        assertConvertsLikeJ2X(json, 1);
+        assertConvertsLikeJ2X(json, 7);
+    }
+
+    @Test
+    void testNamespaceAndSoapEnvelope() throws Exception {
+        config.createNamespace = true;
+        config.namespace = "http://example.com";
+        config.alias = "ex";
+        assertConvertsLikeJ2X("{\"name\":\"John\",\"items\":[1,2]}", 3);
+
+        config.wrapSoapEnvelope = true;
+        config.soapVersion = "1.1";
+        assertConvertsLikeJ2X("{\"name\":\"John\",\"items\":[1,2]}", 3);
+
+        config.soapBodyAsRoot = true;
+        assertConvertsLikeJ2X("[{\"name\":\"John\"},{\"name\":\"Jane\"}]", 5);
+    }
+
+    @Test
+    void testByteBufferFeed() throws Exception {
+        StringWriter out = new StringWriter();
+        J2XAsyncSession session = new J2XConverter(config).newAsyncSession(out);
+        ByteBuffer buffer = ByteBuffer.wrap("{\"name\":\"John\"}".getBytes(StandardCharsets.UTF_8));
+        session.feed(buffer);
+        session.finish();
+
+        assertFalse(buffer.hasRemaining());
+        assertEquals("John", parse(out.toString()).getElementsByTagName("name").item(0).getTextContent());
+    }
+
+    @Test
+    void testLateAttributeIsRejected() throws Exception {
+        J2XAsyncSession session = new J2XConverter(config).newAsyncSession(new StringWriter());
+        assertThrows(XMLStreamException.class, () -> session.feed("{\"name\":\"John\",\"@id\":\"1\"}".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private void assertConvertsLikeJ2X(String json, int chunkSize) throws Exception {
+        J2XConverter converter = new J2XConverter(config);
+        String expected = toXmlString(converter.j2x(objectMapper.readTree(json)));
+
+        StringWriter out = new StringWriter();
+        J2XAsyncSession session = converter.newAsyncSession(out);
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+            session.feed(bytes, offset, Math.min(chunkSize, bytes.length - offset));
+        }
+        session.finish();
+
+        assertEquals(expected, toXmlString(parse(out.toString())));
+    }
+
+    private Document parse(String xml) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+    }
+
+    private String toXmlString(Document doc) throws Exception {
+        Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        StringWriter writer = new StringWriter();
+        transformer.transform(new DOMSource(doc), new StreamResult(writer));
+        return writer.toString();
+    }
+}
@@ -32,8 +32,18 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -142,4 +152,142 @@ class J2XConverterTest {
         assertEquals("John", root.getElementsByTagName("name").item(0).getTextContent());
         assertEquals("30", root.getElementsByTagName("age").item(0).getTextContent());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testBatchesByItemCount() throws Exception {
+        config.createNamespace = false;
+        config.batchMaxItems = 2;
+        List<Document> batches = new ArrayList<>();
+        String json = "[{\"id\":1},{\"id\":2},{\"id\":3},{\"id\":4},{\"id\":5}]";
+
+        int count = converter.j2xBatches(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), (batch, index) -> batches.add(batch));
+
+        assertEquals(3, count);
+        assertEquals(2, batches.get(0).getElementsByTagName("item").getLength());
+        assertEquals("5", batches.get(2).getElementsByTagName("id").item(0).getTextContent());
+    }
+
+    @Test
+    void testBatchesAtPathBySize() throws Exception {
+        config.createNamespace = false;
+        config.wrapSoapEnvelope = true;
+        config.batchArrayPath = "/request/orders";
+        config.batchMaxItems = 0;
+        config.batchMaxBytes = 300;
+        List<Document> batches = new ArrayList<>();
+        StringBuilder json = new StringBuilder("{\"header\":{\"id\":1},\"request\":{\"orders\":[");
+        for (int i = 0; i < 10; i++) json.append(i == 0 ? "" : ",").append("{\"code\":\"ORDER-").append(i).append("\"}");
+        json.append("]}}");
+
+        int count = converter.j2xBatches(new ByteArrayInputStream(json.toString().getBytes(StandardCharsets.UTF_8)), (batch, index) -> batches.add(batch));
+
+        // the envelope takes about 200 bytes and each order is estimated at 37, so two fit in a batch
+        assertEquals(5, count);
+        for (Document batch : batches) {
+            assertEquals("soapenv:Envelope", batch.getDocumentElement().getNodeName());
+            assertEquals(2, batch.getElementsByTagName("orders").getLength());
+            assertEquals(0, batch.getElementsByTagName("header").getLength());
+            assertTrue(serializedSize(batch) <= config.batchMaxBytes);
+        }
+        assertEquals("ORDER-9", batches.get(4).getElementsByTagName("code").item(1).getTextContent());
+    }
+
+    @Test
+    void testBatchSizeCountsEscapedUtf8Bytes() throws Exception {
+        config.wrapSoapEnvelope = true;
+        config.batchMaxItems = 0;
+        config.batchMaxBytes = 400;
+        List<Document> batches = new ArrayList<>();
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 20; i++)
+            json.append(i == 0 ? "" : ",").append("{\"@id\":\"\\\"").append(i).append("\\\"\",\"v\":\"\u00e9\u20ac <&> ").append(i).append("\"}");
+        json.append("]");
+
+        int count = converter.j2xBatches(new ByteArrayInputStream(json.toString().getBytes(StandardCharsets.UTF_8)), (batch, index) -> batches.add(batch));
+
+        assertTrue(count > 1);
+        int items = 0;
+        for (Document batch : batches) {
+            items += batch.getElementsByTagName("ex:item").getLength();
+            assertTrue(serializedSize(batch) <= config.batchMaxBytes, "batch of " + serializedSize(batch) + " bytes");
+        }
+        assertEquals(20, items);
+        assertEquals(6, J2XConverter.utf8Length("a\u00e9\u20ac"));
+        assertEquals(6, J2XConverter.utf8Length("\ud83d\ude00\u00e9"));
+        assertEquals(19, J2XConverter.escapedLength("<&>\""));
+    }
+
+    private long serializedSize(Document doc) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(out));
+        return out.size();
+    }
+
+    @Test
+    void testBatchPathIntoArray() {
+        config.batchArrayPath = "/items/0/orders";
+        String json = "{\"items\":[{\"orders\":[{\"id\":1}]}]}";
+
+        assertThrows(X2JConverter.InvalidJsonPointerException.class, () ->
+                converter.j2xBatches(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), (batch, index) -> { }));
+    }
+
+    @Test
+    void testNamespacePrefixes() throws Exception {
+        config.createNamespace = false;
+        config.namespacePrefixes = Collections.singletonMap("urn:orders", "ord");
+        J2XConverter converter = new J2XConverter(config);
+        JsonNode json = objectMapper.readTree("{\"ord:order\":{\"@ord:id\":\"7\",\"ord:item\":\"x\",\"note\":\"n\"}}");
+        Document doc = converter.j2x(json);
+
+        Element order = (Element) doc.getElementsByTagName("ord:order").item(0);
+        assertEquals("urn:orders", order.getNamespaceURI());
+        assertEquals("7", order.getAttributeNS("urn:orders", "id"));
+        assertEquals("urn:orders", doc.getElementsByTagName("ord:item").item(0).getNamespaceURI());
+        assertNull(doc.getElementsByTagName("note").item(0).getNamespaceURI());
+        assertEquals("urn:orders", doc.getDocumentElement().getAttribute("xmlns:ord"));
+
+        StringWriter out = new StringWriter();
+        J2XAsyncSession session = converter.newAsyncSession(out);
+        session.feed(json.toString().getBytes(StandardCharsets.UTF_8));
+        session.finish();
+        assertTrue(out.toString().contains("<root xmlns:ord=\"urn:orders\"><ord:order ord:id=\"7\"><ord:item>x</ord:item><note>n</note></ord:order></root>"));
+    }
+
+    @Test
+    void testDefaultNamespacePrefix() throws Exception {
+        config.createNamespace = false;
+        config.namespacePrefixes = Collections.singletonMap("urn:o", "");
+        J2XConverter converter = new J2XConverter(config);
+        JsonNode json = objectMapper.readTree("{\"order\":{\"@id\":\"7\",\"item\":\"x\"}}");
+        Document doc = converter.j2x(json);
+
+        assertEquals("urn:o", doc.getDocumentElement().getNamespaceURI());
+        assertEquals("urn:o", doc.getDocumentElement().getAttribute("xmlns"));
+        Element item = (Element) doc.getElementsByTagName("item").item(0);
+        assertEquals("urn:o", item.getNamespaceURI());
+        assertEquals("7", ((Element) item.getParentNode()).getAttributeNS(null, "id"));
+
+        StringWriter out = new StringWriter();
+        J2XAsyncSession session = converter.newAsyncSession(out);
+        session.feed(json.toString().getBytes(StandardCharsets.UTF_8));
+        session.finish();
+        assertTrue(out.toString().contains("<root xmlns=\"urn:o\"><order id=\"7\"><item>x</item></order></root>"), out.toString());
+
+        X2JConverterConfig x2jConfig = new X2JConverterConfig();
+        x2jConfig.ignoreXmlAttribute = false;
+        x2jConfig.namespacePrefixes = config.namespacePrefixes;
+        assertEquals(json, new X2JConverter(x2jConfig).x2J(new ByteArrayInputStream(out.toString().getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    void testNamespacesCompiledOnBuild() throws Exception {
+        config.createNamespace = false;
+        config.namespacePrefixes = Collections.singletonMap("urn:orders", "ord");
+        J2XConverter converter = new J2XConverter(config);
+        config.namespacePrefixes = Collections.singletonMap("urn:other", "ord");
+
+        Document doc = converter.j2x(objectMapper.readTree("{\"ord:item\":\"x\"}"));
+        assertEquals("urn:orders", doc.getElementsByTagName("ord:item").item(0).getNamespaceURI());
+    }
+}
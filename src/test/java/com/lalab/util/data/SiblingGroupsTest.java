@@ -0,0 +1,59 @@
+// MIT License
+
+// Copyright (c) 2024 lila-lalab
+
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+package com.lalab.util.data;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.NodeList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SiblingGroupsTest {
+
+    @Test
+    void testGroupsInFirstSeenOrder() throws Exception {
+        NodeList children = new SyntheticDocuments().depth(1).fanOut(5).document().getDocumentElement().getChildNodes();
+        SiblingGroups siblingGroups = new SiblingGroups();
+        SiblingGroups.Level level = siblingGroups.enter(children.getLength());
+        for (int i = 0; i < children.getLength(); i++) level.add(children.item(i).getNodeName(), children.item(i));
+
+        assertEquals(3, level.groupCount());
+        assertEquals("node0", level.name(0));
+        assertEquals(2, level.size(0));
+        assertSame(children.item(1), level.node(level.next(level.first(0))));
+        assertEquals(-1, level.next(level.first(2)));
+        siblingGroups.exit();
+    }
+
+    @Test
+    void testReleasesOversizedLevels() {
+        SiblingGroups siblingGroups = new SiblingGroups();
+        siblingGroups.enter(4);
+        for (int depth = 1; depth < SiblingGroups.MAX_RETAINED_DEPTH * 2; depth++) siblingGroups.enter(SiblingGroups.MAX_RETAINED_CHILDREN * 4);
+        assertTrue(siblingGroups.retainedCapacity() > SiblingGroups.MAX_RETAINED_DEPTH * SiblingGroups.MAX_RETAINED_CHILDREN);
+        for (int depth = 1; depth < SiblingGroups.MAX_RETAINED_DEPTH * 2; depth++) siblingGroups.exit();
+        // capacity is kept while the conversion is still running
+        assertTrue(siblingGroups.retainedCapacity() > SiblingGroups.MAX_RETAINED_CHILDREN);
+        siblingGroups.exit();
+
+        assertTrue(siblingGroups.retainedCapacity() <= SiblingGroups.MAX_RETAINED_CHILDREN);
+    }
+}
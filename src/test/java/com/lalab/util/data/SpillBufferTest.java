@@ -0,0 +1,51 @@
+// MIT License
+
+// Copyright (c) 2024 lila-lalab
+
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+package com.lalab.util.data;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpillBufferTest {
+
+    @Test
+    void testSpilledBlockCountsAgainstBudget(@TempDir Path spillDirectory) throws Exception {
+        SpillBuffer.Budget budget = new SpillBuffer.Budget(4096);
+        try (SpillBuffer buffer = new SpillBuffer(budget, spillDirectory)) {
+            for (int i = 0; i < 10000; i++) buffer.writeLong(i);
+            assertTrue(buffer.isSpilled());
+            assertEquals(budget.blockSize(), budget.used());
+            assertTrue(budget.used() <= 4096);
+
+            buffer.putLong(8 * 5000, -1);
+            assertEquals(-1, buffer.getLong(8 * 5000));
+            assertEquals(9999, buffer.getLong(8 * 9999));
+
+            buffer.reset();
+            assertEquals(0, budget.used());
+        }
+        assertEquals(0, budget.used());
+    }
+}
@@ -0,0 +1,100 @@
+// MIT License
+
+// Copyright (c) 2024 lila-lalab
+
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.lalab.util.data;
+
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import java.io.StringReader;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/**
+ * Generates synthetic XML documents of a configurable shape for the allocation budget tests.
+ */
+class SyntheticDocuments {
+    int depth = 3;
+    int fanOut = 4;
+    int attributes = 1;
+    int textLength = 16;
+
+    SyntheticDocuments depth(int depth) {
+        this.depth = depth;
+        return this;
+    }
+
+    SyntheticDocuments fanOut(int fanOut) {
+        this.fanOut = fanOut;
+        return this;
+    }
+
+    SyntheticDocuments attributes(int attributes) {
+        this.attributes = attributes;
+        return this;
+    }
+
+    SyntheticDocuments textLength(int textLength) {
+        this.textLength = textLength;
+        return this;
+    }
+
+    /**
+     * Returns the number of elements of the generated documents.
+     */
+    int elementCount() {
+        int count = 1;
+        int level = 1;
+        for (int i = 0; i < depth; i++) {
+            level *= fanOut;
+            count += level;
+        }
+        return count;
+    }
+
+    String xml() {
+        StringBuilder xml = new StringBuilder();
+        appendElement(xml, "root", 0, 0);
+        return xml.toString();
+    }
+
+    Document document() throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(xml())));
+    }
+
+    private void appendElement(StringBuilder xml, String name, int level, int index) {
+        xml.append('<').append(name);
+        for (int i = 0; i < attributes; i++) {
+            xml.append(" attr").append(i).append("=\"").append(index).append('"');
+        }
+        xml.append('>');
+        if (level == depth) {
+            for (int i = 0; i < textLength; i++) xml.append((char) ('a' + (index + i) % 26));
+        } else {
+            for (int i = 0; i < fanOut; i++) {
+                // every other child repeats a name, so both single fields and arrays are generated
+                appendElement(xml, "node" + (i / 2), level + 1, i);
+            }
+        }
+        xml.append("</").append(name).append('>');
+    }
+}
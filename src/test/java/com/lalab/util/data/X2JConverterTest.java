@@ -22,16 +22,40 @@
 
 package com.lalab.util.data;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -144,6 +168,320 @@ class X2JConverterTest {
         assertEquals("John", personNode.get("name").asText());
     }
 
+    @Test
+    void testLazyConversionMatchesEager() throws Exception {
+        config.ignoreXmlAttribute = false;
+        String xml = "<root><person id=\"123\"><name>John</name>person</person><person><name>Jane</name></person><empty/><count>3</count></root>";
+        JsonNode eager = new X2JConverter(config).x2J(createDocument(xml));
+        config.lazyConversion = true;
+        JsonNode lazy = new X2JConverter(config).x2J(createDocument(xml));
+
+        assertEquals(eager.toString(), lazy.toString());
+    }
+
+    @Test
+    void testLazyConversionDefersChildren() throws Exception {
+        config.lazyConversion = true;
+        X2JConverter converter = new X2JConverter(config);
+        List<String> valuesRead = new ArrayList<>();
+        Document doc = recording(createDocument("<root><person><name>John</name></person><other><x>1</x><y>2</y></other></root>"), valuesRead);
+        JsonNode json = converter.x2J(doc);
+        assertEquals(Collections.emptyList(), valuesRead);
+
+        assertEquals("John", json.at("/person/name").asText());
+        assertEquals(Collections.singletonList("John"), valuesRead);
+        assertTrue(json.get("other").isObject());
+        assertEquals(Collections.singletonList("John"), valuesRead);
+    }
+
+    /**
+     * Wraps a DOM node, and the nodes reached from it, in proxies recording the values read from text nodes.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T recording(T target, List<String> valuesRead) {
+        Set<Class<?>> interfaces = new LinkedHashSet<>();
+        for (Class<?> type = target.getClass(); type != null; type = type.getSuperclass()) {
+            for (Class<?> candidate : type.getInterfaces()) {
+                if (candidate.getName().startsWith("org.w3c.dom.")) interfaces.add(candidate);
+            }
+        }
+        return (T) Proxy.newProxyInstance(X2JConverterTest.class.getClassLoader(), interfaces.toArray(new Class<?>[0]), (proxy, method, args) -> {
+            Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (method.getName().equals("getNodeValue") && ((Node) target).getNodeType() == Node.TEXT_NODE) valuesRead.add((String) result);
+            if (result instanceof Node || result instanceof NodeList || result instanceof NamedNodeMap) return recording(result, valuesRead);
+            return result;
+        });
+    }
+
+    @Test
+    void testStreamConversionMatchesDocument() throws Exception {
+        config.ignoreXmlAttribute = false;
+        String xml = "<root xmlns:b=\"urn:b\" zeta=\"1\" alpha=\"2\"><person id=\"123\"><name>John</name>person</person><b:person><name>Jane</name></b:person><note><![CDATA[a < b]]></note><empty/></root>";
+        X2JConverter converter = new X2JConverter(config);
+        JsonNode fromDocument = converter.x2J(createDocument(xml));
+        JsonNode fromStream = converter.x2J(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(fromDocument.toString(), fromStream.toString());
+    }
+
+    @Test
+    void testStreamConversionMatchesDocumentWithMixedCdata() throws Exception {
+        assertAllPaths("{\"c\":\"v\",\"d\":\"u\"}", "<r><c>t<![CDATA[u]]>v</c><d>t<![CDATA[u]]></d></r>");
+    }
+
+    @Test
+    void testIncludePathProjection() throws Exception {
+        config.ignoreXmlAttribute = false;
+        config.includePaths = Arrays.asList("/Body/Response/Result/*");
+        String xml = "<root><Header><id>1</id></Header><Body><Trace>x</Trace><Response status=\"ok\"><Result><item>1</item><item>2</item></Result></Response></Body></root>";
+        X2JConverter converter = new X2JConverter(config);
+        String expected = "{\"Body\":{\"Response\":{\"Result\":{\"item\":[\"1\",\"2\"]}}}}";
+
+        assertEquals(expected, converter.x2J(createDocument(xml)).toString());
+        assertEquals(expected, converter.x2J(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))).toString());
+    }
+
+    @Test
+    void testExcludePathProjection() throws Exception {
+        config.excludePaths = Arrays.asList("/person/secret", "/*/audit");
+        String xml = "<root><person><name>John</name><secret>s</secret><audit>a</audit></person><person><name>Jane</name><secret>t</secret></person></root>";
+        X2JConverter converter = new X2JConverter(config);
+        String expected = "{\"person\":[{\"name\":\"John\"},{\"name\":\"Jane\"}]}";
+
+        assertEquals(expected, converter.x2J(createDocument(xml)).toString());
+        assertEquals(expected, converter.x2J(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))).toString());
+    }
+
+    @Test
+    void testProjectionDropsContentOutsideIncludes() throws Exception {
+        config.includePaths = Arrays.asList("/a/b");
+        config.excludePaths = Arrays.asList("/c/d");
+        assertAllPaths("{\"a\":{\"b\":\"1\"}}", "<r><a><b>1</b></a><c>text</c></r>");
+        assertAllPaths("{\"a\":{\"b\":\"1\"}}", "<r><a><b>1</b></a><c><d>2</d><e>3</e></c></r>");
+
+        config.includePaths = Arrays.asList("/Body/Response/Result");
+        config.excludePaths = Collections.emptyList();
+        assertAllPaths("{}", "<r><Body><Response>err</Response></Body></r>");
+        assertAllPaths("{\"Body\":{\"Response\":{\"Result\":\"ok\"}}}",
+                "<r><Body><Response>err</Response><Response>text<Result>ok</Result></Response></Body></r>");
+    }
+
+    /**
+     * Asserts that every conversion path of the current configuration gives the expected JSON.
+     */
+    private void assertAllPaths(String expected, String xml) throws Exception {
+        X2JConverter converter = new X2JConverter(config);
+        assertEquals(expected, converter.x2J(createDocument(xml)).toString());
+        assertEquals(expected, converter.x2J(createNamespaceAwareDocument(xml)).toString());
+        assertEquals(expected, converter.x2J(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))).toString());
+        assertEquals(expected, streamToString(converter, xml));
+        config.lazyConversion = true;
+        try {
+            assertEquals(expected, new X2JConverter(config).x2J(createDocument(xml)).toString());
+        } finally {
+            config.lazyConversion = false;
+        }
+    }
+
+    @Test
+    void testBinaryOutput() throws Exception {
+        config.ignoreXmlAttribute = false;
+        X2JConverter converter = new X2JConverter(config);
+        Document doc = createDocument("<root><person id=\"123\"><name>John</name></person><person><name>Jane</name></person></root>");
+        JsonNode expected = converter.x2J(doc);
+
+        for (JsonFormat format : new JsonFormat[] {JsonFormat.SMILE, JsonFormat.CBOR}) {
+            boolean[] closed = new boolean[1];
+            ByteArrayOutputStream out = new ByteArrayOutputStream() {
+                @Override
+                public void close() {
+                    closed[0] = true;
+                }
+            };
+            converter.writex2J(doc, out, format);
+
+            assertFalse(closed[0], format + " output stream was closed");
+            ObjectMapper mapper = new ObjectMapper(format == JsonFormat.SMILE ? new SmileFactory() : new CBORFactory());
+            try (JsonParser parser = mapper.createParser(out.toByteArray())) {
+                assertEquals(expected, mapper.readTree(parser));
+                assertNull(parser.nextToken(), format + " output has trailing data");
+            }
+        }
+    }
+
+    @Test
+    void testStreamWriterGroupsSiblings() throws Exception {
+        config.ignoreXmlAttribute = false;
+        String xml = "<root xmlns:b=\"urn:b\" id=\"7\"><item>1</item><note>caf\u00e9 \u2603</note><item><b:name>x</b:name></item><empty/><item/>tail</root>";
+        X2JConverter converter = new X2JConverter(config);
+
+        assertEquals(converter.x2J(createDocument(xml)).toString(), streamToString(converter, xml));
+    }
+
+    @Test
+    void testStreamWriterSpillsToDisk(@TempDir Path spillDirectory) throws Exception {
+        String xml = new SyntheticDocuments().depth(3).fanOut(12).textLength(40).xml()
+                .replace("<root>", "<root><tag>first</tag>").replace("</root>", "<tag>last</tag></root>");
+        config.spillThreshold = 0;
+        config.spillDirectory = spillDirectory.toString();
+        X2JConverter converter = new X2JConverter(config);
+
+        assertEquals(converter.x2J(createDocument(xml)).toString(), streamToString(converter, xml));
+        try (Stream<Path> files = Files.list(spillDirectory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void testStreamWriterSpillsDeepDocument(@TempDir Path spillDirectory) throws Exception {
+        config.ignoreXmlAttribute = false;
+        StringBuilder xml = new StringBuilder();
+        for (int depth = 0; depth < 300; depth++)
+            xml.append("<level depth=\"").append(depth).append("\"><v>first ").append(depth).append("</v>");
+        xml.append("<leaf>");
+        for (int i = 0; i < 40; i++) xml.append("caf\u00e9 ");
+        xml.append("</leaf>");
+        for (int depth = 299; depth >= 0; depth--) xml.append("<v>last ").append(depth).append("</v></level>");
+        config.spillThreshold = 1024;
+        config.spillDirectory = spillDirectory.toString();
+        X2JConverter converter = new X2JConverter(config);
+
+        assertEquals(converter.x2J(createDocument(xml.toString())).toString(), streamToString(converter, xml.toString()));
+        try (Stream<Path> files = Files.list(spillDirectory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void testFieldRules() throws Exception {
+        config.ignoreXmlAttribute = false;
+        config.renameFields = Collections.singletonMap("cust", "customer");
+        config.dropFields = Arrays.asList("trace", "@ts");
+        config.flattenFields = Arrays.asList("amount");
+        config.includePaths = Arrays.asList("/customer");
+        String xml = "<root><cust ts=\"1\" id=\"7\"><trace><step>a</step></trace><amount currency=\"EUR\">12.5</amount></cust><other>x</other><customer><amount>3</amount></customer></root>";
+        X2JConverter converter = new X2JConverter(config);
+        String expected = "{\"customer\":[{\"@id\":\"7\",\"amount\":\"12.5\"},{\"amount\":\"3\"}]}";
+
+        assertEquals(expected, converter.x2J(createDocument(xml)).toString());
+        assertEquals(expected, converter.x2J(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))).toString());
+        assertEquals(expected, streamToString(converter, xml));
+        config.lazyConversion = true;
+        assertEquals(expected, new X2JConverter(config).x2J(createDocument(xml)).toString());
+    }
+
+    @Test
+    void testDroppedAttributesLeaveLeaves() throws Exception {
+        config.ignoreXmlAttribute = false;
+        config.dropFields = Arrays.asList("@ts");
+        assertAllPaths("{\"a\":\"x\",\"b\":{\"@id\":\"2\",\"_value\":\"y\"}}", "<r><a ts=\"1\">x</a><b ts=\"1\" id=\"2\">y</b></r>");
+    }
+
+    @Test
+    void testRenameRepeatedSiblings() throws Exception {
+        config.renameFields = Collections.singletonMap("order", "o:order");
+        X2JConverter converter = new X2JConverter(config);
+        String single = "<root><order>1</order></root>";
+        String repeated = "<root><order>1</order><order>2</order></root>";
+
+        assertEquals("{\"o:order\":\"1\"}", converter.x2J(createDocument(single)).toString());
+        for (String json : Arrays.asList(converter.x2J(createDocument(repeated)).toString(),
+                converter.x2J(new ByteArrayInputStream(repeated.getBytes(StandardCharsets.UTF_8))).toString(),
+                streamToString(converter, repeated)))
+            assertEquals("{\"o:order\":[\"1\",\"2\"]}", json);
+        config.lazyConversion = true;
+        assertEquals("{\"o:order\":[\"1\",\"2\"]}", new X2JConverter(config).x2J(createDocument(repeated)).toString());
+    }
+
+    @Test
+    void testTextSlices() throws Exception {
+        config.ignoreXmlAttribute = false;
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < 5000; i++) data.append("QUJD").append(i % 10);
+        String xml = "<root id=\" 7 \"><name>\n  John &amp; Jane  \n</name><data>" + data + "</data><note>a<b>x</b>tail </note><empty/><c><![CDATA[ raw ]]></c></root>";
+        String expected = new X2JConverter(config).x2J(createDocument(xml)).toString();
+        config.textSlices = true;
+        X2JConverter converter = new X2JConverter(config);
+
+        JsonNode fromDocument = converter.x2J(createDocument(xml));
+        JsonNode fromStream = converter.x2J(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(expected, fromDocument.toString());
+        assertEquals(expected, fromStream.toString());
+        assertTrue(fromStream.get("data") instanceof TextSliceNode);
+        assertEquals(data.length(), ((TextSliceNode) fromStream.get("data")).charSequence().length());
+        assertEquals("John & Jane", fromStream.get("name").asText());
+        assertEquals(fromDocument.get("name"), fromStream.get("name"));
+        // slices only equal slices, so equality stays symmetric with TextNode
+        JsonNode text = new TextNode("John & Jane");
+        assertNotEquals(text, fromStream.get("name"));
+        assertNotEquals(fromStream.get("name"), text);
+        assertEquals(text.asText(), fromStream.get("name").asText());
+        // slices shorter and longer than the write buffer, in text and binary formats
+        StringWriter writer = new StringWriter();
+        converter.writex2J(createDocument(xml), writer);
+        assertEquals(expected, writer.toString());
+        ByteArrayOutputStream smile = new ByteArrayOutputStream();
+        converter.writex2J(createDocument(xml), smile, JsonFormat.SMILE);
+        assertEquals(expected, new ObjectMapper(new SmileFactory()).readTree(smile.toByteArray()).toString());
+        config.lazyConversion = true;
+        assertEquals(expected, new X2JConverter(config).x2J(createDocument(xml)).toString());
+    }
+
+    @Test
+    void testNamespacePrefixesByUri() throws Exception {
+        config.ignoreXmlAttribute = false;
+        config.namespacePrefixes = Collections.singletonMap("urn:orders", "ord");
+        X2JConverter converter = new X2JConverter(config);
+        String partnerA = "<a:order xmlns:a=\"urn:orders\" a:id=\"7\"><a:item>x</a:item><note>n</note></a:order>";
+        String partnerB = "<o:order xmlns:o=\"urn:orders\" o:id=\"7\"><o:item>x</o:item><note>n</note></o:order>";
+        String partnerC = "<order xmlns=\"urn:orders\" xmlns:o=\"urn:orders\" o:id=\"7\"><item xmlns:x=\"urn:other\">x</item><note xmlns=\"\">n</note></order>";
+        String expected = "{\"@ord:id\":\"7\",\"ord:item\":\"x\",\"note\":\"n\"}";
+
+        for (String xml : Arrays.asList(partnerA, partnerB)) {
+            assertEquals(expected, converter.x2J(createNamespaceAwareDocument(xml)).toString());
+            assertEquals(expected, converter.x2J(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))).toString());
+            assertEquals(expected, streamToString(converter, xml));
+        }
+        // declarations of namespaces outside the table are still converted
+        String withOther = "{\"@ord:id\":\"7\",\"ord:item\":{\"@x\":\"urn:other\",\"_value\":\"x\"},\"note\":{\"@xmlns\":\"\",\"_value\":\"n\"}}";
+        assertEquals(withOther, converter.x2J(createNamespaceAwareDocument(partnerC)).toString());
+        assertEquals(withOther, converter.x2J(new ByteArrayInputStream(partnerC.getBytes(StandardCharsets.UTF_8))).toString());
+        assertEquals(withOther, streamToString(converter, partnerC));
+        // without namespace information the alias is trimmed as before
+        assertEquals("x", converter.x2J(createDocument(partnerA)).get("item").asText());
+    }
+
+    @Test
+    void testNamespacePrefixesOnRepeatedSiblings() throws Exception {
+        config.namespacePrefixes = Collections.singletonMap("urn:orders", "ord");
+        X2JConverter converter = new X2JConverter(config);
+        String xml = "<a:order xmlns:a=\"urn:orders\"><a:item>x</a:item><a:item>y</a:item></a:order>";
+        String expected = "{\"ord:item\":[\"x\",\"y\"]}";
+
+        assertEquals(expected, converter.x2J(createNamespaceAwareDocument(xml)).toString());
+        assertEquals(expected, converter.x2J(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))).toString());
+        assertEquals(expected, streamToString(converter, xml));
+        config.lazyConversion = true;
+        assertEquals(expected, new X2JConverter(config).x2J(createNamespaceAwareDocument(xml)).toString());
+    }
+
+    private Document createNamespaceAwareDocument(String docString) throws ParserConfigurationException, IOException, SAXException {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new InputSource(new StringReader(docString)));
+    }
+
+    private String streamToString(X2JConverter converter, String xml) throws Exception {
+        StringWriter out = new StringWriter();
+        converter.writex2J(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), new ObjectMapper().createGenerator(out));
+        return out.toString();
+    }
+
     private Document createDocument(String docString) throws ParserConfigurationException,IOException,SAXException{
         DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
         DocumentBuilder builder = factory.newDocumentBuilder();